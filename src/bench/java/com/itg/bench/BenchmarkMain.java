@@ -0,0 +1,63 @@
+package com.itg.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs the benchmarks with the GC profiler and prints files/s, MB/s and allocated bytes per file.
+ * <p>
+ * Accepts the usual JMH command line, e.g. {@code java -jar target/benchmarks.jar Routing -p fanOut=8}.
+ */
+public class BenchmarkMain {
+
+    private static final double MEGABYTE = 1024 * 1024;
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        System.out.println();
+        System.out.printf("%-100s %14s %10s %12s%n", "Benchmark", "files/s", "MB/s", "B/file");
+        for (RunResult result : results) {
+            double operations = result.getPrimaryResult().getScore();
+            double files = score(result, "files");
+            double bytes = score(result, "bytes");
+            double allocatedPerOperation = score(result, "gc.alloc.rate.norm");
+            double allocatedPerFile = files > 0 ? allocatedPerOperation * operations / files : Double.NaN;
+
+            System.out.printf("%-100s %14.1f %10.2f %12.1f%n", label(result), files, bytes / MEGABYTE, allocatedPerFile);
+        }
+    }
+
+    private static double score(RunResult result, String label) {
+        Result<?> secondary = result.getSecondaryResults().get(label);
+        return secondary == null ? Double.NaN : secondary.getScore();
+    }
+
+    private static String label(RunResult result) {
+        String benchmark = result.getParams().getBenchmark();
+        StringBuilder label = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1));
+        Map<String, String> params = new TreeMap<>();
+        for (String key : result.getParams().getParamsKeys()) {
+            params.put(key, result.getParams().getParam(key));
+        }
+        if (!params.isEmpty()) {
+            label.append(' ').append(params);
+        }
+        return label.toString();
+    }
+}
@@ -0,0 +1,190 @@
+package com.itg.bench;
+
+import com.itg.sftp.SFTPConfig;
+import com.itg.sftp.SFTPConnector;
+import com.itg.sftp.SFTPSessionPool;
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Apache sshd SFTP server on localhost for benchmarks, optionally behind a proxy that delays every
+ * packet in both directions to simulate the round trip time of a WAN link.
+ */
+public class EmbeddedSftpServer implements Closeable {
+
+    public static final String USER = "bench";
+    public static final String PASSWORD = "bench";
+
+    private final SshServer server;
+    private final LatencyProxy proxy;
+
+    /**
+     * @param root           Directory served as SFTP root
+     * @param oneWayDelayMillis Delay added to every packet in each direction, 0 to connect directly
+     */
+    public EmbeddedSftpServer(Path root, long oneWayDelayMillis) throws IOException {
+        server = SshServer.setUpDefaultServer();
+        server.setHost("127.0.0.1");
+        server.setPort(0);
+        server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider(root.resolveSibling(root.getFileName() + ".hostkey")));
+        server.setPasswordAuthenticator((user, password, session) -> USER.equals(user) && PASSWORD.equals(password));
+        server.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+        server.setFileSystemFactory(new VirtualFileSystemFactory(root));
+        server.start();
+        proxy = oneWayDelayMillis > 0 ? new LatencyProxy(server.getPort(), oneWayDelayMillis) : null;
+    }
+
+    /**
+     * @return Port clients connect to
+     */
+    public int getPort() {
+        return proxy != null ? proxy.getPort() : server.getPort();
+    }
+
+    /**
+     * @return New authenticated sshj client
+     */
+    public SSHClient connect() throws IOException {
+        SSHClient client = new SSHClient();
+        client.addHostKeyVerifier(new PromiscuousVerifier());
+        client.connect("127.0.0.1", getPort());
+        client.authPassword(USER, PASSWORD);
+        return client;
+    }
+
+    /**
+     * @param maxChannels Channels the pool opens at most
+     * @return New session pool of the movers on a connection to this server
+     */
+    public SFTPSessionPool newSessionPool(int maxChannels) {
+        SFTPConfig config = SFTPConfig.builder()
+                .host("127.0.0.1")
+                .userName(USER)
+                .password(PASSWORD)
+                .maxChannels(maxChannels)
+                .build();
+        return new SFTPSessionPool(config, new SFTPConnector() {
+            @Override
+            protected void open(SSHClient client, SFTPConfig ignored) throws IOException {
+                client.addHostKeyVerifier(new PromiscuousVerifier());
+                client.connect("127.0.0.1", getPort());
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (proxy != null) {
+            proxy.close();
+        }
+        server.stop(true);
+    }
+
+    /**
+     * TCP proxy holding every chunk for a fixed time before forwarding it, without limiting bandwidth.
+     */
+    private static class LatencyProxy implements Closeable {
+
+        private final ServerSocket serverSocket;
+        private final int targetPort;
+        private final long delayMillis;
+
+        private LatencyProxy(int targetPort, long delayMillis) throws IOException {
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            this.targetPort = targetPort;
+            this.delayMillis = delayMillis;
+            daemon("latency-proxy-accept", this::accept).start();
+        }
+
+        private int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void accept() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket client = serverSocket.accept();
+                    Socket target = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                    client.setTcpNoDelay(true);
+                    target.setTcpNoDelay(true);
+                    pipe(client, target);
+                    pipe(target, client);
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void pipe(Socket from, Socket to) {
+            BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+            daemon("latency-proxy-read", () -> {
+                byte[] buffer = new byte[64 * 1024];
+                try (InputStream in = from.getInputStream()) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        chunks.put(new Chunk(System.nanoTime(), Arrays.copyOf(buffer, read)));
+                    }
+                } catch (IOException | InterruptedException ignored) {
+                    // Connection closed
+                }
+                chunks.add(new Chunk(System.nanoTime(), null));
+            }).start();
+            daemon("latency-proxy-write", () -> {
+                try (OutputStream out = to.getOutputStream()) {
+                    while (true) {
+                        Chunk chunk = chunks.take();
+                        long waitMillis = delayMillis - (System.nanoTime() - chunk.received) / 1_000_000;
+                        if (waitMillis > 0) {
+                            Thread.sleep(waitMillis);
+                        }
+                        if (chunk.data == null) {
+                            return;
+                        }
+                        out.write(chunk.data);
+                        out.flush();
+                    }
+                } catch (IOException | InterruptedException ignored) {
+                    // Connection closed
+                }
+            }).start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+
+        private static Thread daemon(String name, Runnable runnable) {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+
+        private static class Chunk {
+            private final long received;
+            private final byte[] data;
+
+            private Chunk(long received, byte[] data) {
+                this.received = received;
+                this.data = data;
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.itg.bench;
+
+import com.itg.FileTransferService;
+import com.itg.LocalFileTransferService;
+import com.itg.transfer.BatchResult;
+import com.itg.transfer.CopyResult;
+import com.itg.transfer.ExecutionMode;
+import com.itg.transfer.PartialFiles;
+import com.itg.transfer.TransferPipeline;
+import com.itg.transfer.TransferWorkerPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Platform worker pool against one virtual thread per transfer at the same concurrency: both pools accept
+ * {@code concurrency} transfers at a time, without a queue, and share the per-destination limit. The modes only
+ * differ in the threads the transfers run on. On a runtime without virtual threads the virtual pool falls back to
+ * the platform one, so both report the same throughput.
+ * <p>
+ * One operation is a scan cycle over a generated tree with many bank folders: the folders are scanned one after
+ * the other, like the movers walk them, and every file is copied into the destination of its folder. {@code latencyMillis} adds a
+ * blocking wait to each copy, standing in for the SFTP round trips the workers spend most of their time on.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class ExecutionModeBenchmark {
+
+    @Param({"PLATFORM", "VIRTUAL"})
+    public ExecutionMode mode;
+
+    @Param({"0", "5"})
+    public long latencyMillis;
+
+    @Param({"16"})
+    public int folders;
+
+    @Param({"4", "64"})
+    public int concurrency;
+
+    @Param({"4"})
+    public int perDestinationLimit;
+
+    private Path workDir;
+    private Path targetDir;
+    private List<TreeGenerator.Node> folderNodes;
+    private final FileTransferService localFiles = new LocalFileTransferService();
+    private final TransferPipeline pipeline = new TransferPipeline();
+    private TransferWorkerPool pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("mode-bench");
+        targetDir = Files.createDirectories(workDir.resolve("target"));
+        TreeGenerator.Node tree = new TreeGenerator()
+                .depth(1)
+                .fanOut(folders)
+                .filesPerDirectory(8)
+                .yearFolderShare(0)
+                .bankFolderShare(0)
+                .allowedExtensionShare(1)
+                .fileSizes(1024, 64 * 1024)
+                .materialize(workDir.resolve("source"));
+        folderNodes = new ArrayList<>();
+        for (TreeGenerator.Node child : tree.getChildren()) {
+            if (child.isDirectory()) {
+                folderNodes.add(child);
+                Files.createDirectories(targetDir.resolve(child.getPath().getFileName()));
+            }
+        }
+        pool = new TransferWorkerPool(concurrency, 0, perDestinationLimit, mode);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        BenchFiles.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public BatchResult scanCycle(TransferCounters counters) throws IOException, InterruptedException {
+        TransferWorkerPool.Batch batch = pool.newBatch();
+        for (TreeGenerator.Node folder : folderNodes) {
+            Path destination = targetDir.resolve(folder.getPath().getFileName());
+            for (TreeGenerator.Node file : folder.files()) {
+                batch.submit(destination.toString(), () -> transfer(file, destination));
+            }
+        }
+        BatchResult result = batch.await();
+        for (TreeGenerator.Node folder : folderNodes) {
+            for (TreeGenerator.Node file : folder.files()) {
+                counters.count(file.getSize());
+            }
+        }
+        return result;
+    }
+
+    private boolean transfer(TreeGenerator.Node file, Path destination) throws IOException {
+        if (latencyMillis > 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        }
+        Path target = destination.resolve(file.getPath().getFileName());
+        String partialPath = PartialFiles.partialPath(target).toString();
+        CopyResult result = pipeline.copy(localFiles, file.getPath().toString(), localFiles, partialPath);
+        if (result.isVerified()) {
+            localFiles.publish(partialPath, target.toString());
+        }
+        return result.isVerified();
+    }
+}
@@ -0,0 +1,118 @@
+package com.itg.bench;
+
+import com.itg.FileTransferService;
+import com.itg.LocalFileTransferService;
+import com.itg.transfer.CopyResult;
+import com.itg.transfer.PartialFiles;
+import com.itg.transfer.TransferPipeline;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local copy with verification and plain hashing over a generated tree, through the {@link TransferPipeline} and
+ * {@link LocalFileTransferService} the local mover uses: the file is copied into a partial file, read back if
+ * {@code readBack} is set and published. One operation handles one file, the files are taken round robin so the mix
+ * follows the size distribution.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LocalCopyBenchmark {
+
+    @Param({"1024"})
+    public long minFileSize;
+
+    @Param({"65536", "4194304"})
+    public long maxFileSize;
+
+    @Param({"true", "false"})
+    public boolean readBack;
+
+    private Path workDir;
+    private List<TreeGenerator.Node> files;
+    private final FileTransferService localFiles = new LocalFileTransferService();
+    private final TransferPipeline pipeline = new TransferPipeline();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("copy-bench");
+        files = new TreeGenerator()
+                .depth(2)
+                .fanOut(3)
+                .filesPerDirectory(16)
+                .yearFolderShare(0)
+                .allowedExtensionShare(1)
+                .fileSizes(minFileSize, maxFileSize)
+                .materialize(workDir.resolve("source"))
+                .files();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchFiles.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public CopyResult copyAndVerify(Cursor cursor, TransferCounters counters) throws IOException {
+        int index = cursor.next(files.size());
+        TreeGenerator.Node file = files.get(index);
+        Path target = cursor.target.resolve(index + ".out");
+        String partialPath = PartialFiles.partialPath(target).toString();
+        CopyResult result = pipeline.copy(localFiles, file.getPath().toString(), localFiles, partialPath);
+        if (!result.isVerified() || readBack && !pipeline.matches(localFiles, partialPath, result)) {
+            throw new IOException("Copy does not match: " + file.getPath());
+        }
+        localFiles.publish(partialPath, target.toString());
+        counters.count(result.getSize());
+        return result;
+    }
+
+    @Benchmark
+    public byte[] hash(Cursor cursor, TransferCounters counters) throws IOException {
+        TreeGenerator.Node file = files.get(cursor.next(files.size()));
+        byte[] digest = pipeline.digest(localFiles, file.getPath().toString());
+        counters.count(file.getSize());
+        return digest;
+    }
+
+    /**
+     * Position in the file list and copy target of one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        Path target;
+        private int position;
+
+        @Setup(Level.Trial)
+        public void setUp(LocalCopyBenchmark benchmark) throws IOException {
+            target = Files.createTempDirectory(benchmark.workDir, "target");
+        }
+
+        int next(int size) {
+            int index = position;
+            position = (position + 1) % size;
+            return index;
+        }
+    }
+}
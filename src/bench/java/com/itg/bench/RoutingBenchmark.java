@@ -0,0 +1,107 @@
+package com.itg.bench;
+
+import com.itg.messagemover.BankMessageMover;
+import com.itg.routing.RoutingRules;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing decisions of the directory visitor without any I/O: which directories are descended into
+ * and where each file goes. One operation visits the whole generated tree.
+ * {@link #visitTree} includes building the destination paths, {@link #classifyTree} measures the rules alone.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoutingBenchmark {
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"4", "8"})
+    public int fanOut;
+
+    @Param({"0.0", "0.2"})
+    public double yearFolderShare;
+
+    @Param({"true", "false"})
+    public boolean fromBank;
+
+    private BankMessageMover mover;
+    private Path sourceDir;
+    private TreeGenerator.Node tree;
+    private RoutingRules rules;
+
+    @Setup
+    public void setUp() {
+        Path root = Paths.get("routing-bench").toAbsolutePath();
+        mover = new BankMessageMover();
+        mover.setBankDir(root.resolve("bank").toString());
+        mover.setSboDir(root.resolve("sb").toString());
+        mover.setArchivationDir(root.resolve("archive").toString());
+
+        sourceDir = root.resolve(fromBank ? "bank" : "sb");
+        tree = new TreeGenerator()
+                .depth(depth)
+                .fanOut(fanOut)
+                .yearFolderShare(yearFolderShare)
+                .generate(sourceDir);
+        rules = RoutingRules.compile(Set.of(TreeGenerator.BANK_FOLDER), Set.of("xml", "rje", "prt", "DOS", "csv"));
+    }
+
+    @Benchmark
+    public void visitTree(TransferCounters counters, Blackhole blackhole) {
+        visit(tree, counters, blackhole);
+    }
+
+    @Benchmark
+    public void classifyTree(TransferCounters counters, Blackhole blackhole) {
+        classify(tree, counters, blackhole);
+    }
+
+    private void classify(TreeGenerator.Node directory, TransferCounters counters, Blackhole blackhole) {
+        if (!rules.isScannedDirectory(sourceDir, directory.getPath(), fromBank)) {
+            return;
+        }
+        for (TreeGenerator.Node child : directory.getChildren()) {
+            if (child.isDirectory()) {
+                classify(child, counters, blackhole);
+            } else {
+                blackhole.consume(rules.classify(sourceDir, child.getPath(), fromBank));
+                counters.count(0);
+            }
+        }
+    }
+
+    private void visit(TreeGenerator.Node directory, TransferCounters counters, Blackhole blackhole) {
+        if (!mover.isScannedDirectory(directory.getPath(), fromBank)) {
+            return;
+        }
+        for (TreeGenerator.Node child : directory.getChildren()) {
+            if (child.isDirectory()) {
+                visit(child, counters, blackhole);
+            } else {
+                blackhole.consume(mover.route(sourceDir, child.getPath(), fromBank));
+                counters.count(0);
+            }
+        }
+    }
+}
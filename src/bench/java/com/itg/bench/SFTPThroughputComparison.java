@@ -0,0 +1,93 @@
+package com.itg.bench;
+
+import com.itg.FileTransferService;
+import com.itg.LocalFileTransferService;
+import com.itg.sftp.SFTPFileTransferService;
+import com.itg.transfer.PartialFiles;
+import com.itg.transfer.TransferPipeline;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares the classic request window of sshj {@code put}/{@code get} with a larger pipelined window, both through
+ * the {@link TransferPipeline} and {@link SFTPFileTransferService} the SFTP mover uses, against an embedded SFTP
+ * server behind a latency proxy.
+ * <p>
+ * Usage: {@code SFTPThroughputComparison [fileSizeMb] [oneWayDelayMs] [outstandingRequests] [chunkSize]}
+ */
+public class SFTPThroughputComparison {
+
+    public static void main(String[] args) throws Exception {
+        int fileSizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        long delayMillis = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        int outstandingRequests = args.length > 2 ? Integer.parseInt(args[2]) : SFTPFileTransferService.DEFAULT_MAX_OUTSTANDING_REQUESTS;
+        int chunkSize = args.length > 3 ? Integer.parseInt(args[3]) : SFTPFileTransferService.DEFAULT_CHUNK_SIZE;
+
+        Path workDir = Files.createTempDirectory("sftp-bench");
+        Path serverRoot = Files.createDirectories(workDir.resolve("server"));
+        Path localFile = createFile(workDir.resolve("payload.bin"), fileSizeMb);
+        FileTransferService localFiles = new LocalFileTransferService();
+        TransferPipeline pipeline = new TransferPipeline();
+
+        System.out.printf("File %d MB, RTT %d ms, pipelined window %d x %d bytes%n",
+                fileSizeMb, 2 * delayMillis, outstandingRequests, chunkSize);
+
+        try (EmbeddedSftpServer server = new EmbeddedSftpServer(serverRoot, delayMillis)) {
+            SFTPFileTransferService classic = new SFTPFileTransferService(server.newSessionPool(1),
+                    SFTPFileTransferService.CLASSIC_MAX_OUTSTANDING_REQUESTS, SFTPFileTransferService.DEFAULT_CHUNK_SIZE, 1);
+            SFTPFileTransferService pipelined = new SFTPFileTransferService(server.newSessionPool(1),
+                    outstandingRequests, chunkSize, 1);
+            try {
+                // Warm up the connections and the JIT before measuring
+                transfer(pipeline, localFiles, localFile.toString(), classic, "warmup.bin");
+                transfer(pipeline, localFiles, localFile.toString(), pipelined, "warmup.bin");
+
+                report("classic   upload  ", fileSizeMb,
+                        () -> transfer(pipeline, localFiles, localFile.toString(), classic, "classic.bin"));
+                report("pipelined upload  ", fileSizeMb,
+                        () -> transfer(pipeline, localFiles, localFile.toString(), pipelined, "pipelined.bin"));
+                report("classic   download", fileSizeMb,
+                        () -> transfer(pipeline, classic, "classic.bin", localFiles, workDir.resolve("classic.bin").toString()));
+                report("pipelined download", fileSizeMb,
+                        () -> transfer(pipeline, pipelined, "pipelined.bin", localFiles, workDir.resolve("pipelined.bin").toString()));
+            } finally {
+                classic.disconnect();
+                pipelined.disconnect();
+            }
+        }
+    }
+
+    private static void transfer(TransferPipeline pipeline, FileTransferService source, String sourcePath,
+                                 FileTransferService destination, String path) throws IOException {
+        String partialPath = PartialFiles.partialPath(path);
+        pipeline.copy(source, sourcePath, destination, partialPath);
+        destination.publish(partialPath, path);
+    }
+
+    private static Path createFile(Path file, int sizeMb) throws IOException {
+        byte[] block = new byte[1024 * 1024];
+        Random random = new Random(42);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int i = 0; i < sizeMb; i++) {
+                random.nextBytes(block);
+                out.write(block);
+            }
+        }
+        return file;
+    }
+
+    private static void report(String name, int sizeMb, Transfer transfer) throws IOException {
+        long start = System.nanoTime();
+        transfer.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s %8.2f s %8.2f MB/s%n", name, seconds, sizeMb / seconds);
+    }
+
+    private interface Transfer {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,129 @@
+package com.itg.bench;
+
+import com.itg.FileTransferService;
+import com.itg.LocalFileTransferService;
+import com.itg.sftp.SFTPFileTransferService;
+import com.itg.sftp.SFTPTransferMode;
+import com.itg.transfer.CopyResult;
+import com.itg.transfer.PartialFiles;
+import com.itg.transfer.TransferPipeline;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads and downloads of generated files against the embedded SFTP server, through the {@link TransferPipeline}
+ * and {@link SFTPFileTransferService} the SFTP mover uses, over a single channel. {@code mode} picks the request
+ * window the mover would use for it. One operation transfers one file into a partial file and publishes it, the
+ * files are taken round robin.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class SftpTransferBenchmark {
+
+    private static final String SOURCE_DIR = "source";
+    private static final String UPLOAD_DIR = "upload";
+
+    @Param({"CLASSIC", "PIPELINED"})
+    public SFTPTransferMode mode;
+
+    @Param({"0", "10"})
+    public long oneWayDelayMillis;
+
+    @Param({"1024"})
+    public long minFileSize;
+
+    @Param({"1048576"})
+    public long maxFileSize;
+
+    private final FileTransferService localFiles = new LocalFileTransferService();
+    private final TransferPipeline pipeline = new TransferPipeline();
+    private Path workDir;
+    private Path serverRoot;
+    private Path downloadDir;
+    private List<TreeGenerator.Node> files;
+    private EmbeddedSftpServer server;
+    private SFTPFileTransferService remoteFiles;
+    private int position;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("sftp-bench");
+        serverRoot = Files.createDirectories(workDir.resolve("server"));
+        downloadDir = Files.createDirectories(workDir.resolve("download"));
+        Files.createDirectories(serverRoot.resolve(UPLOAD_DIR));
+        // The generated files are both upload sources and download sources, the server serves them from disk
+        files = new TreeGenerator()
+                .depth(1)
+                .fanOut(2)
+                .filesPerDirectory(16)
+                .yearFolderShare(0)
+                .allowedExtensionShare(1)
+                .fileSizes(minFileSize, maxFileSize)
+                .materialize(serverRoot.resolve(SOURCE_DIR))
+                .files();
+
+        server = new EmbeddedSftpServer(serverRoot, oneWayDelayMillis);
+        remoteFiles = new SFTPFileTransferService(server.newSessionPool(1), mode == SFTPTransferMode.CLASSIC
+                ? SFTPFileTransferService.CLASSIC_MAX_OUTSTANDING_REQUESTS : SFTPFileTransferService.DEFAULT_MAX_OUTSTANDING_REQUESTS,
+                SFTPFileTransferService.DEFAULT_CHUNK_SIZE, 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        remoteFiles.disconnect();
+        server.close();
+        BenchFiles.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public void upload(TransferCounters counters) throws IOException {
+        int index = next();
+        TreeGenerator.Node file = files.get(index);
+        String remotePath = UPLOAD_DIR + "/" + index + ".bin";
+        String partialPath = PartialFiles.partialPath(remotePath);
+        CopyResult result = pipeline.copy(localFiles, file.getPath().toString(), remoteFiles, partialPath);
+        remoteFiles.publish(partialPath, remotePath);
+        counters.count(result.getSize());
+    }
+
+    @Benchmark
+    public void download(TransferCounters counters) throws IOException {
+        int index = next();
+        TreeGenerator.Node file = files.get(index);
+        String remotePath = serverRoot.relativize(file.getPath()).toString().replace('\\', '/');
+        Path localFile = downloadDir.resolve(index + ".bin");
+        String partialPath = PartialFiles.partialPath(localFile).toString();
+        CopyResult result = pipeline.copy(remoteFiles, remotePath, localFiles, partialPath);
+        localFiles.publish(partialPath, localFile.toString());
+        counters.count(result.getSize());
+    }
+
+    private int next() {
+        int index = position;
+        position = (position + 1) % files.size();
+        return index;
+    }
+}
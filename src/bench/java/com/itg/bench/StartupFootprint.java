@@ -0,0 +1,88 @@
+package com.itg.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures startup time and resident set size of a child JVM.
+ * <p>
+ * The child is launched with the given main class and arguments and the time until it prints {@code marker}
+ * on stdout or stderr is taken as startup time. After {@code settleSeconds} the {@code VmRSS} of the child
+ * is read from {@code /proc}, so the measurement works on Linux only.
+ * <p>
+ * Headless daemon against the GUI:
+ * <pre>
+ * StartupFootprint "Daemon started" 10 com.itg.ITGSynchronize --config daemon.properties
+ * StartupFootprint "User interface started" 10 com.itg.ITGSynchronize
+ * </pre>
+ * The class path of the child is taken from {@code -Dfootprint.classpath}, defaulting to the own class path.
+ */
+public class StartupFootprint {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 3) {
+            System.err.println("Usage: StartupFootprint <marker> <settleSeconds> <mainClass> [args...]");
+            System.exit(2);
+        }
+        String marker = args[0];
+        long settleSeconds = Long.parseLong(args[1]);
+
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("footprint.classpath", System.getProperty("java.class.path")));
+        command.addAll(Arrays.asList(args).subList(2, args.length));
+
+        long started = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        long startupMillis = -1;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.contains(marker)) {
+                    startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                    break;
+                }
+            }
+            if (startupMillis < 0) {
+                System.err.println("Child exited before printing the marker, exit code " + process.waitFor());
+                System.exit(1);
+            }
+            // Keep draining the output so the child never blocks on a full pipe
+            Thread drain = new Thread(() -> {
+                try {
+                    while (reader.readLine() != null) {
+                        // discard
+                    }
+                } catch (IOException ignored) {
+                }
+            });
+            drain.setDaemon(true);
+            drain.start();
+
+            TimeUnit.SECONDS.sleep(settleSeconds);
+            System.out.printf("startup %d ms, rss %.1f MB after %d s%n", startupMillis, residentMegabytes(process.pid()), settleSeconds);
+        } finally {
+            process.destroy();
+            process.waitFor(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static double residentMegabytes(long pid) throws IOException {
+        for (String line : Files.readAllLines(Path.of("/proc", String.valueOf(pid), "status"))) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("\\D", "")) / 1024.0;
+            }
+        }
+        return -1;
+    }
+}
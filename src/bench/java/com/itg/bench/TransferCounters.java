@@ -0,0 +1,33 @@
+package com.itg.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Files and bytes handled by a benchmark, reported by JMH as rates next to the operations.
+ * {@link BenchmarkMain} turns them into files/s, MB/s and allocated bytes per file.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class TransferCounters {
+
+    public long files;
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        files = 0;
+        bytes = 0;
+    }
+
+    /**
+     * @param size Size of the handled file
+     */
+    public void count(long size) {
+        files++;
+        bytes += size;
+    }
+}
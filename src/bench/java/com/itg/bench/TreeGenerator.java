@@ -0,0 +1,230 @@
+package com.itg.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deterministic synthetic directory trees shaped like the bank and SB folders.
+ * <p>
+ * Every directory has {@code fanOut} subdirectories down to {@code depth} and {@code filesPerDirectory} files.
+ * A share of the subdirectories are year folders ({@code ^\d{4}$}, skipped by the movers) or bank folders
+ * ({@code FromODB}). File sizes follow a log-uniform distribution between the minimum and maximum size, so small
+ * files dominate as in the real message folders. The same seed always yields the same tree.
+ */
+public class TreeGenerator {
+
+    public static final String BANK_FOLDER = "FromODB";
+    private static final String[] ALLOWED_EXTENSIONS = {"xml", "rje", "prt", "DOS", "csv"};
+    private static final String[] OTHER_EXTENSIONS = {"tmp", "log", "bak"};
+
+    private int depth = 3;
+    private int fanOut = 4;
+    private int filesPerDirectory = 8;
+    private long minFileSize = 1024;
+    private long maxFileSize = 64 * 1024;
+    private double yearFolderShare = 0.1;
+    private double bankFolderShare = 0.25;
+    private double allowedExtensionShare = 0.9;
+    private long seed = 42;
+
+    public TreeGenerator depth(int depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    public TreeGenerator fanOut(int fanOut) {
+        this.fanOut = fanOut;
+        return this;
+    }
+
+    public TreeGenerator filesPerDirectory(int filesPerDirectory) {
+        this.filesPerDirectory = filesPerDirectory;
+        return this;
+    }
+
+    /**
+     * @param minFileSize Smallest file size in bytes
+     * @param maxFileSize Largest file size in bytes
+     */
+    public TreeGenerator fileSizes(long minFileSize, long maxFileSize) {
+        this.minFileSize = Math.max(1, minFileSize);
+        this.maxFileSize = Math.max(this.minFileSize, maxFileSize);
+        return this;
+    }
+
+    /**
+     * @param yearFolderShare Probability that a subdirectory is a year folder
+     */
+    public TreeGenerator yearFolderShare(double yearFolderShare) {
+        this.yearFolderShare = yearFolderShare;
+        return this;
+    }
+
+    /**
+     * @param bankFolderShare Probability that a subdirectory is a bank folder
+     */
+    public TreeGenerator bankFolderShare(double bankFolderShare) {
+        this.bankFolderShare = bankFolderShare;
+        return this;
+    }
+
+    /**
+     * @param allowedExtensionShare Probability that a file has an extension the movers transfer
+     */
+    public TreeGenerator allowedExtensionShare(double allowedExtensionShare) {
+        this.allowedExtensionShare = allowedExtensionShare;
+        return this;
+    }
+
+    public TreeGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Generates the tree in memory.
+     *
+     * @param root Root the entries are resolved against
+     * @return Root node of the tree
+     */
+    public Node generate(Path root) {
+        Random random = new Random(seed);
+        Node node = new Node(root, true, 0);
+        fill(node, 0, random);
+        return node;
+    }
+
+    /**
+     * Generates the tree and writes it to disk with random content.
+     * Modification times are set into the past so the movers do not wait for the files to settle.
+     *
+     * @param root Directory the tree is created in
+     * @return Root node of the tree
+     */
+    public Node materialize(Path root) throws IOException {
+        Node tree = generate(root);
+        Random content = new Random(seed);
+        byte[] buffer = new byte[64 * 1024];
+        FileTime past = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10));
+        for (Node node : tree.preOrder()) {
+            if (node.isDirectory()) {
+                Files.createDirectories(node.getPath());
+                continue;
+            }
+            try (OutputStream out = Files.newOutputStream(node.getPath())) {
+                long remaining = node.getSize();
+                while (remaining > 0) {
+                    content.nextBytes(buffer);
+                    int length = (int) Math.min(buffer.length, remaining);
+                    out.write(buffer, 0, length);
+                    remaining -= length;
+                }
+            }
+            Files.setLastModifiedTime(node.getPath(), past);
+        }
+        return tree;
+    }
+
+    private void fill(Node directory, int level, Random random) {
+        for (int i = 0; i < filesPerDirectory; i++) {
+            boolean allowed = random.nextDouble() < allowedExtensionShare;
+            String[] extensions = allowed ? ALLOWED_EXTENSIONS : OTHER_EXTENSIONS;
+            String name = "msg" + i + "." + extensions[random.nextInt(extensions.length)];
+            directory.children.add(new Node(directory.path.resolve(name), false, fileSize(random)));
+        }
+        if (level >= depth) {
+            return;
+        }
+        boolean bankFolderUsed = false;
+        for (int i = 0; i < fanOut; i++) {
+            double kind = random.nextDouble();
+            String name;
+            if (kind < yearFolderShare) {
+                name = String.valueOf(2000 + i);
+            } else if (kind < yearFolderShare + bankFolderShare && !bankFolderUsed) {
+                name = BANK_FOLDER;
+                bankFolderUsed = true;
+            } else {
+                name = "dir" + i;
+            }
+            Node child = new Node(directory.path.resolve(name), true, 0);
+            directory.children.add(child);
+            fill(child, level + 1, random);
+        }
+    }
+
+    private long fileSize(Random random) {
+        double logMin = Math.log(minFileSize);
+        double logMax = Math.log(maxFileSize);
+        return Math.round(Math.exp(logMin + random.nextDouble() * (logMax - logMin)));
+    }
+
+    /**
+     * File or directory of a generated tree.
+     */
+    public static class Node {
+
+        private final Path path;
+        private final boolean directory;
+        private final long size;
+        private final List<Node> children = new ArrayList<>();
+
+        Node(Path path, boolean directory, long size) {
+            this.path = path;
+            this.directory = directory;
+            this.size = size;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public List<Node> getChildren() {
+            return children;
+        }
+
+        /**
+         * @return This node and all nodes below it, every directory before its content
+         */
+        public List<Node> preOrder() {
+            List<Node> nodes = new ArrayList<>();
+            collect(this, nodes);
+            return nodes;
+        }
+
+        /**
+         * @return All files below this node
+         */
+        public List<Node> files() {
+            List<Node> files = new ArrayList<>();
+            for (Node node : preOrder()) {
+                if (!node.directory) {
+                    files.add(node);
+                }
+            }
+            return files;
+        }
+
+        private static void collect(Node node, List<Node> nodes) {
+            nodes.add(node);
+            for (Node child : node.children) {
+                collect(child, nodes);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.itg.bench;
+
+import com.itg.scan.ParallelTreeWalker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sequential {@link Files#walkFileTree} against the fork-join {@link ParallelTreeWalker}.
+ * <p>
+ * One operation walks a generated tree with year and FromODB folders and skips them like the movers do.
+ * {@code latencyMillis} is added to every directory read, standing in for a slow network share.
+ * The sequential walk ignores {@code parallelism}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class TreeWalkBenchmark {
+
+    @Param({"0", "2"})
+    public long latencyMillis;
+
+    @Param({"1", "4", "8"})
+    public int parallelism;
+
+    private Path workDir;
+    private Path root;
+    private ParallelTreeWalker walker;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("walk-bench");
+        root = workDir.resolve("source");
+        new TreeGenerator()
+                .depth(3)
+                .fanOut(6)
+                .filesPerDirectory(4)
+                .yearFolderShare(0.1)
+                .bankFolderShare(0.1)
+                .fileSizes(0, 0)
+                .materialize(root);
+        walker = new ParallelTreeWalker("bench", parallelism) {
+            @Override
+            protected DirectoryStream<Path> openDirectory(Path dir) throws IOException {
+                pause();
+                return super.openDirectory(dir);
+            }
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        walker.shutdown();
+        BenchFiles.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public long sequential(TransferCounters counters) throws IOException {
+        LongAdder files = new LongAdder();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(root) && !isScanned(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                pause();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.increment();
+                counters.count(attrs.size());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files.sum();
+    }
+
+    @Benchmark
+    public long parallel(TransferCounters counters) throws IOException, InterruptedException {
+        LongAdder files = new LongAdder();
+        LongAdder bytes = new LongAdder();
+        walker.walk(root, TreeWalkBenchmark::isScanned, (file, attrs) -> {
+            files.increment();
+            bytes.add(attrs.size());
+        });
+        counters.files += files.sum();
+        counters.bytes += bytes.sum();
+        return files.sum();
+    }
+
+    private static boolean isScanned(Path dir) {
+        String name = dir.getFileName().toString();
+        return !name.matches("\\d{4}") && !name.equals(TreeGenerator.BANK_FOLDER);
+    }
+
+    private void pause() {
+        if (latencyMillis > 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.itg;
 
+import javafx.application.Platform;
 import javafx.scene.control.Alert;
 import javafx.stage.Stage;
 
@@ -16,4 +17,15 @@ public class AlertUtils {
         alert.setContentText(message);
         alert.showAndWait();
     }
+
+    /**
+     * @param stage Owner of the dialogs
+     * @return Notifier logging the error and showing it as a dialog on the JavaFX thread
+     */
+    public static ErrorNotifier notifier(Stage stage) {
+        return (title, message) -> {
+            ErrorNotifier.LOGGING.notifyError(title, message);
+            Platform.runLater(() -> displayError(stage, title, message));
+        };
+    }
 }
@@ -0,0 +1,150 @@
+package com.itg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Hands log records to a background thread that writes them to the target handler in batches.
+ * <p>
+ * Logging threads only put the record into a bounded ring buffer, the message is neither formatted nor written on
+ * their thread. When the buffer is full the {@link OverflowPolicy} decides whether the logging thread waits or the
+ * record is dropped. Dropped records are counted and reported in the log once there is room again.
+ */
+public class AsyncLogHandler extends Handler {
+
+    public static final int DEFAULT_CAPACITY = 8192;
+    private static final int BATCH_SIZE = 512;
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    /**
+     * What happens to a record when the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The logging thread waits for room, nothing is lost.
+         */
+        BLOCK,
+        /**
+         * The record is dropped, the logging thread never waits.
+         */
+        DROP
+    }
+
+    private final Handler target;
+    private final BlockingQueue<LogRecord> buffer;
+    private final OverflowPolicy overflowPolicy;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * @param target         Handler the records are written to, only used by the writer thread
+     * @param capacity       Number of records buffered
+     * @param overflowPolicy What happens to a record when the buffer is full
+     */
+    public AsyncLogHandler(Handler target, int capacity, OverflowPolicy overflowPolicy) {
+        this.target = target;
+        this.buffer = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.overflowPolicy = overflowPolicy;
+        this.writer = new Thread(this::writeLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        if (overflowPolicy == OverflowPolicy.DROP) {
+            if (!buffer.offer(record)) {
+                dropped.increment();
+            }
+            return;
+        }
+        try {
+            while (!buffer.offer(record, 1, TimeUnit.SECONDS)) {
+                if (closed) {
+                    dropped.increment();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            dropped.increment();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Number of records dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Records are flushed by the writer thread after every batch.
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Writes the buffered records and closes the target.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        target.close();
+    }
+
+    private void writeLoop() {
+        List<LogRecord> batch = new ArrayList<>(BATCH_SIZE);
+        long reportedDrops = 0;
+        while (!closed || !buffer.isEmpty()) {
+            try {
+                LogRecord first = buffer.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                // Only stopped through close
+                continue;
+            }
+            buffer.drainTo(batch, BATCH_SIZE - 1);
+            try {
+                for (LogRecord record : batch) {
+                    target.publish(record);
+                }
+                long drops = dropped.sum();
+                if (drops > reportedDrops) {
+                    LogRecord warning = new LogRecord(Level.WARNING, (drops - reportedDrops) + " log record(s) dropped, the log buffer was full.");
+                    warning.setLoggerName(batch.get(0).getLoggerName());
+                    target.publish(warning);
+                    reportedDrops = drops;
+                }
+                target.flush();
+            } catch (RuntimeException e) {
+                reportError("Unable to write log records.", e, ErrorManager.WRITE_FAILURE);
+            }
+            batch.clear();
+        }
+    }
+}
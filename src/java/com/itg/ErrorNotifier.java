@@ -0,0 +1,24 @@
+package com.itg;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives errors the user has to act on, e.g. a file that already exists at its destination.
+ * The GUI shows them as dialogs, the headless daemon only logs them.
+ */
+@FunctionalInterface
+public interface ErrorNotifier {
+
+    /**
+     * Logs the error and never blocks the calling transfer.
+     */
+    ErrorNotifier LOGGING = (title, message) ->
+            Logger.getLogger("BankMessageMover").log(Level.SEVERE, title + ": " + message);
+
+    /**
+     * @param title   Short title of the error
+     * @param message Description of the error
+     */
+    void notifyError(String title, String message);
+}
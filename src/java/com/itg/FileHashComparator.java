@@ -1,36 +1,70 @@
 package com.itg;
 
+import com.itg.transfer.StreamingFileCopier;
 import net.schmizz.sshj.sftp.OpenMode;
 import net.schmizz.sshj.sftp.RemoteFile;
 import net.schmizz.sshj.sftp.SFTPClient;
-import net.schmizz.sshj.sftp.SFTPException;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.EnumSet;
 
 public class FileHashComparator {
 
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final int MAX_OUTSTANDING_READS = 16;
+    private static final StreamingFileCopier LOCAL_HASHER = new StreamingFileCopier();
+
+    /**
+     * Compares the SHA-256 hash of a local file with the hash of a remote file.
+     * Both files are streamed, the remote file with read-ahead, so memory use does not depend on the file size.
+     *
+     * @param localFile      Local file
+     * @param remoteFilePath Remote file
+     * @param sftpClient     SFTP client
+     * @return True if the hashes match, false otherwise or if one of the files cannot be read
+     */
     public static boolean compareFileHashes(Path localFile, String remoteFilePath, SFTPClient sftpClient) {
-        return true;
-//        try {
-//            // Compute hash for local file
-//            byte[] localFileHash = calculateFileHash(localFile, "SHA-256");
-//
-//            // Compute hash for remote file
-//            byte[] remoteFileHash = calculateSftpFileHash(remoteFilePath, sftpClient, "SHA-256");
-//
-//            // Compare hashes
-//            return MessageDigest.isEqual(localFileHash, remoteFileHash);
-//        } catch (Exception e) {
-//            return false;
-//        }
+        try {
+            // Compute hash for local file
+            byte[] localFileHash = calculateFileHash(localFile);
+
+            // Compute hash for remote file
+            byte[] remoteFileHash = calculateSftpFileHash(remoteFilePath, sftpClient);
+
+            // Compare hashes
+            return MessageDigest.isEqual(localFileHash, remoteFileHash);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param file Local file
+     * @return SHA-256 hash of the file
+     */
+    public static byte[] calculateFileHash(Path file) throws IOException {
+        return LOCAL_HASHER.digest(file);
+    }
+
+    /**
+     * @param remoteFilePath Remote file
+     * @param sftpClient     SFTP client
+     * @return SHA-256 hash of the remote file
+     */
+    public static byte[] calculateSftpFileHash(String remoteFilePath, SFTPClient sftpClient) throws IOException {
+        MessageDigest digest = StreamingFileCopier.newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (RemoteFile remoteFile = sftpClient.open(remoteFilePath, EnumSet.of(OpenMode.READ));
+             InputStream in = remoteFile.new ReadAheadRemoteFileInputStream(MAX_OUTSTANDING_READS)) {
+            int read;
+            while ((read = in.read(buffer, 0, buffer.length)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
     }
 
 }
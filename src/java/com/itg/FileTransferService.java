@@ -1,17 +1,73 @@
 package com.itg;
 
+import com.itg.transfer.FileEntry;
+import com.itg.transfer.FileListing;
+
 import java.io.IOException;
-import java.nio.file.Path;
-import java.util.List;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.Predicate;
 
+/**
+ * File system a transfer reads from or writes to.
+ * Paths are given in the notation of the file system. File contents are streamed through channels and trees are
+ * listed lazily, so neither the file size nor the size of the tree is held in memory.
+ */
 public interface FileTransferService {
     void connect() throws IOException;
 
     void disconnect() throws IOException;
 
-    void transferFile(Path sourcePath, Path destinationPath) throws IOException;
+    /**
+     * @param path File or directory
+     * @return Attributes of the file or null if it does not exist
+     */
+    FileEntry stat(String path) throws IOException;
+
+    /**
+     * Opens a file for reading.
+     *
+     * @param path   File to read
+     * @param offset Position of the first byte read
+     * @return Channel, closing it releases the file and any connection resources held for it
+     */
+    ReadableByteChannel openRead(String path, long offset) throws IOException;
+
+    /**
+     * Opens a file for writing, creating the file and its missing parent directories.
+     *
+     * @param path   File to write
+     * @param offset Position of the first byte written, at 0 an existing file is truncated
+     * @return Channel, closing it releases the file and any connection resources held for it
+     */
+    WritableByteChannel openWrite(String path, long offset) throws IOException;
+
+    /**
+     * Renames a complete file to its final name in one step, replacing an existing file.
+     *
+     * @param partialPath File written by the transfer
+     * @param path        Final name in the same directory
+     */
+    void publish(String partialPath, String path) throws IOException;
+
+    /**
+     * @param path File to delete
+     * @return True if the file existed
+     */
+    boolean delete(String path) throws IOException;
 
-    byte[] getFile(Path path) throws IOException;
+    /**
+     * Lists the files below a directory. Directories are only read once the listing reaches them.
+     *
+     * @param dir             Directory to list
+     * @param directoryFilter Returns false for directories whose subtree is not listed
+     * @param batchSize       Maximum number of files returned per batch
+     * @return Listing, close it if it is not read to the end
+     */
+    FileListing list(String dir, Predicate<FileEntry> directoryFilter, int batchSize) throws IOException;
 
-    List<Path> listFiles(Path dir) throws IOException;
+    /**
+     * @return True if every read costs a network round trip, the transfer then avoids reading files twice
+     */
+    boolean isRemote();
 }
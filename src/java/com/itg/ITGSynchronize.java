@@ -1,7 +1,21 @@
 package com.itg;
 
+import com.itg.metrics.MetricsRegistry;
+
+import java.util.Arrays;
+
 public class ITGSynchronize {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        // ITGSynchronize --config daemon.properties runs headless, without loading JavaFX
+        if (args.length > 0 && "--config".equals(args[0])) {
+            ITGSynchronizeDaemon.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // The GUI serves the metrics over HTTP only when asked to with -Ditg.metrics.port=<port>
+        Integer metricsPort = Integer.getInteger("itg.metrics.port");
+        if (metricsPort != null && metricsPort > 0) {
+            MetricsRegistry.getDefault().startHttpEndpoint(metricsPort);
+        }
         ITGSynchronizeApp.main(args);
     }
-}
\ No newline at end of file
+}
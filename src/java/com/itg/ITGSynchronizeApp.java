@@ -22,6 +22,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 import java.util.stream.Collectors;
 
@@ -73,6 +75,7 @@ public class ITGSynchronizeApp extends Application {
         primaryStage.setTitle("ITG Synchronize");
         primaryStage.setScene(scene);
         primaryStage.show();
+        Logger.getLogger("BankMessageMover").log(Level.INFO, "User interface started.");
     }
 
     private VBox createLocalTransferForm(Stage primaryStage) {
@@ -141,7 +144,7 @@ public class ITGSynchronizeApp extends Application {
         startButton.setMaxWidth(Double.MAX_VALUE);
 
 
-        BankMessageMover messageMover = new BankMessageMover(primaryStage);
+        BankMessageMover messageMover = new BankMessageMover(AlertUtils.notifier(primaryStage));
 
         // Set the start button action
         startButton.setOnAction(e -> {
@@ -336,7 +339,7 @@ public class ITGSynchronizeApp extends Application {
         startButton.setMaxWidth(Double.MAX_VALUE);
 
 
-        BankMessageSFTPMover messageMover = new BankMessageSFTPMover(primaryStage);
+        BankMessageSFTPMover messageMover = new BankMessageSFTPMover(AlertUtils.notifier(primaryStage));
 
         // Set the start button action
         startButton.setOnAction(e -> {
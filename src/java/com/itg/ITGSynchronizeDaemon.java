@@ -0,0 +1,302 @@
+package com.itg;
+
+import com.itg.messagemover.BankMessageMover;
+import com.itg.messagemover.BankMessageSFTPMover;
+import com.itg.messagemover.MessageMover;
+import com.itg.metrics.MetricsRegistry;
+import com.itg.printer.PrintApplication;
+import com.itg.scan.ParallelTreeWalker;
+import com.itg.scan.WriteQuiescenceDetector;
+import com.itg.sftp.SFTPConfig;
+import com.itg.sftp.SFTPTransferMode;
+import com.itg.sftp.VerificationStrategy;
+import com.itg.transfer.ExecutionMode;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the movers without a user interface, configured by a properties file.
+ * <p>
+ * Nothing in here touches JavaFX, errors that the GUI shows as dialogs are only logged.
+ * A mover is started if its {@code local.*} or {@code sftp.*} section names a bank path,
+ * see {@code daemon.properties} for all keys. The movers are stopped by the shutdown hook.
+ */
+public class ITGSynchronizeDaemon {
+
+    static Logger logger = Logger.getLogger("BankMessageMover");
+
+    private static final long DEFAULT_SCAN_INTERVAL = 50L;
+    private static final long MIN_SCAN_INTERVAL = 30L;
+    private static final String LOCAL = "local.";
+    private static final String SFTP = "sftp.";
+    private static final String METRICS = "metrics.";
+    private static final String LOGGING = "logging.";
+
+    private final Properties config;
+    private final List<MessageMover> movers = new ArrayList<>();
+    private PrintApplication printSpooler;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    public ITGSynchronizeDaemon(Properties config) {
+        this.config = config;
+    }
+
+    /**
+     * @param configFile Properties file with the mover configuration
+     * @return Daemon configured by the file
+     */
+    public static ITGSynchronizeDaemon fromFile(Path configFile) throws IOException {
+        Properties config = new Properties();
+        try (Reader reader = Files.newBufferedReader(configFile, StandardCharsets.UTF_8)) {
+            config.load(reader);
+        }
+        return new ITGSynchronizeDaemon(config);
+    }
+
+    /**
+     * Starts the configured movers.
+     *
+     * @throws IllegalArgumentException if no mover is configured or a path does not exist
+     */
+    public void start() {
+        LoggerConfiguration.setQueueCapacity(getInt(LOGGING, "queueCapacity", AsyncLogHandler.DEFAULT_CAPACITY));
+        LoggerConfiguration.setOverflowPolicy(AsyncLogHandler.OverflowPolicy.valueOf(
+                get(LOGGING, "overflowPolicy", AsyncLogHandler.OverflowPolicy.BLOCK.name())));
+        if (!get(LOCAL, "bankPath").isEmpty()) {
+            movers.add(createLocalMover());
+        }
+        if (!get(SFTP, "bankPath").isEmpty()) {
+            movers.add(createSftpMover());
+            startPrintSpooler();
+        }
+        if (movers.isEmpty()) {
+            throw new IllegalArgumentException("Neither local.bankPath nor sftp.bankPath is configured.");
+        }
+        for (MessageMover mover : movers) {
+            mover.start();
+        }
+        int metricsPort = getInt(METRICS, "port", 0);
+        if (metricsPort > 0) {
+            try {
+                MetricsRegistry.getDefault().startHttpEndpoint(metricsPort);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to start metrics endpoint on port " + metricsPort, e);
+            }
+        }
+    }
+
+    /**
+     * Stops every started mover.
+     */
+    public void stop() {
+        for (MessageMover mover : movers) {
+            try {
+                mover.stop();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Unable to stop mover.", e);
+            }
+        }
+        movers.clear();
+        if (printSpooler != null) {
+            try {
+                printSpooler.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to stop print spooler.", e);
+            }
+            printSpooler = null;
+        }
+        MetricsRegistry.getDefault().stopHttpEndpoint();
+        stopped.countDown();
+    }
+
+    /**
+     * Blocks until {@link #stop()} was called.
+     */
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    private MessageMover createLocalMover() {
+        BankMessageMover mover = new BankMessageMover();
+        mover.setSboDir(directory(LOCAL, "sboPath"));
+        mover.setBankDir(directory(LOCAL, "bankPath"));
+        mover.setArchivationDir(directory(LOCAL, "archivationPath"));
+        mover.setLoggingPath(directory(LOCAL, "loggingPath"));
+        mover.setScanInterval(scanInterval(LOCAL));
+        mover.setMinScanInterval(getInt(LOCAL, "minScanInterval", 5));
+        mover.setMaxScanInterval(getInt(LOCAL, "maxScanInterval", 0));
+        mover.setBankFolders(list(LOCAL, "bankFolders"));
+        mover.setPrinterName(get(LOCAL, "printerName"));
+        mover.setTransferWorkers(getInt(LOCAL, "transferWorkers", 4));
+        mover.setPerDestinationLimit(getInt(LOCAL, "perDestinationLimit", 2));
+        mover.setExecutionMode(ExecutionMode.valueOf(get(LOCAL, "executionMode", ExecutionMode.PLATFORM.name())));
+        mover.setScanParallelism(getInt(LOCAL, "scanParallelism", ParallelTreeWalker.DEFAULT_PARALLELISM));
+        mover.setQuiescencePeriod(getInt(LOCAL, "quiescenceMillis", (int) WriteQuiescenceDetector.DEFAULT_QUIESCENCE_MILLIS));
+        mover.setLockProbe(Boolean.parseBoolean(get(LOCAL, "lockProbe", "false")));
+        map(LOCAL, "markers").forEach(mover::setMarkerSuffix);
+        mover.setArchiveContainers(Boolean.parseBoolean(get(LOCAL, "archiveContainers", "false")));
+        mover.setArchiveDeduplication(Boolean.parseBoolean(get(LOCAL, "archiveDeduplication", "false")));
+        mover.setArchiveRetentionDays(getInt(LOCAL, "archiveRetentionDays", 0));
+        mover.setArchiveCopyFolders(list(LOCAL, "archiveCopyFolders"));
+        mover.setReconciliationInterval(getInt(LOCAL, "reconciliationInterval", 30));
+        return mover;
+    }
+
+    private MessageMover createSftpMover() {
+        SFTPConfig sftpConfig = SFTPConfig.builder()
+                .host(require(SFTP, "host"))
+                .userName(require(SFTP, "username"))
+                .password(get(SFTP, "password"))
+                .maxChannels(getInt(SFTP, "maxChannels", 8))
+                .listingConcurrency(getInt(SFTP, "listingConcurrency", 4))
+                .transferMode(SFTPTransferMode.valueOf(get(SFTP, "transferMode", SFTPTransferMode.PIPELINED.name())))
+                .verificationStrategy(VerificationStrategy.valueOf(get(SFTP, "verificationStrategy",
+                        VerificationStrategy.SERVER_CHECKSUM.name())))
+                .build();
+
+        BankMessageSFTPMover mover = new BankMessageSFTPMover();
+        mover.setSftpConfig(sftpConfig);
+        mover.setSftpSboDir(require(SFTP, "sboPath"));
+        mover.setBankDir(directory(SFTP, "bankPath"));
+        mover.setArchivationDir(directory(SFTP, "archivationPath"));
+        mover.setLoggingPath(directory(SFTP, "loggingPath"));
+        mover.setScanInterval(scanInterval(SFTP));
+        mover.setMinScanInterval(getInt(SFTP, "minScanInterval", 5));
+        mover.setMaxScanInterval(getInt(SFTP, "maxScanInterval", 0));
+        mover.setBankFolders(list(SFTP, "bankFolders"));
+        mover.setPrinterName(get(SFTP, "printerName"));
+        mover.setTransferWorkers(getInt(SFTP, "transferWorkers", 4));
+        mover.setPerDestinationLimit(getInt(SFTP, "perDestinationLimit", 2));
+        mover.setExecutionMode(ExecutionMode.valueOf(get(SFTP, "executionMode", ExecutionMode.PLATFORM.name())));
+        mover.setScanParallelism(getInt(SFTP, "scanParallelism", ParallelTreeWalker.DEFAULT_PARALLELISM));
+        mover.setQuiescencePeriod(getInt(SFTP, "quiescenceMillis", (int) WriteQuiescenceDetector.DEFAULT_QUIESCENCE_MILLIS));
+        mover.setLockProbe(Boolean.parseBoolean(get(SFTP, "lockProbe", "false")));
+        map(SFTP, "markers").forEach(mover::setMarkerSuffix);
+        mover.setArchiveContainers(Boolean.parseBoolean(get(SFTP, "archiveContainers", "false")));
+        mover.setArchiveDeduplication(Boolean.parseBoolean(get(SFTP, "archiveDeduplication", "false")));
+        mover.setArchiveRetentionDays(getInt(SFTP, "archiveRetentionDays", 0));
+        mover.setArchiveCopyFolders(list(SFTP, "archiveCopyFolders"));
+        mover.setReconciliationInterval(getInt(SFTP, "reconciliationInterval", 30));
+        return mover;
+    }
+
+    /**
+     * Starts printing the files arriving in the folders of {@code sftp.printerMapping}
+     * ({@code folder=printer} pairs separated by {@code ;}).
+     */
+    private void startPrintSpooler() {
+        Map<String, String> printerConfig = map(SFTP, "printerMapping");
+        if (printerConfig.isEmpty()) {
+            return;
+        }
+        try {
+            printSpooler = new PrintApplication(get(SFTP, "bankPath"), printerConfig);
+            Thread spooler = new Thread(printSpooler::processEvents, "print-spooler");
+            spooler.setDaemon(true);
+            spooler.start();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to start print spooler.", e);
+        }
+    }
+
+    private long scanInterval(String section) {
+        try {
+            return Math.max(MIN_SCAN_INTERVAL, Long.parseLong(get(section, "scanInterval", String.valueOf(DEFAULT_SCAN_INTERVAL))));
+        } catch (NumberFormatException e) {
+            return DEFAULT_SCAN_INTERVAL;
+        }
+    }
+
+    private String directory(String section, String key) {
+        String path = require(section, key);
+        if (!Files.isDirectory(Paths.get(path))) {
+            throw new IllegalArgumentException(section + key + " is not a directory: " + path);
+        }
+        return path;
+    }
+
+    private String require(String section, String key) {
+        String value = get(section, key);
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException(section + key + " is not configured.");
+        }
+        return value;
+    }
+
+    private List<String> list(String section, String key) {
+        return Arrays.stream(get(section, key).split(","))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Reads {@code key=value} pairs separated by {@code ;}.
+     */
+    private Map<String, String> map(String section, String key) {
+        Map<String, String> pairs = new HashMap<>();
+        for (String pair : get(section, key).split(";")) {
+            int index = pair.indexOf('=');
+            if (index > 0) {
+                pairs.put(pair.substring(0, index).trim(), pair.substring(index + 1).trim());
+            }
+        }
+        return pairs;
+    }
+
+    private int getInt(String section, String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(section, key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private String get(String section, String key) {
+        return get(section, key, "");
+    }
+
+    private String get(String section, String key, String defaultValue) {
+        return config.getProperty(section + key, defaultValue).trim();
+    }
+
+    /**
+     * @param args Path of the configuration file
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 1) {
+            System.err.println("Usage: ITGSynchronize --config <daemon.properties>");
+            System.exit(2);
+        }
+        ITGSynchronizeDaemon daemon = fromFile(Paths.get(args[0]));
+        try {
+            daemon.start();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid configuration: " + e.getMessage());
+            daemon.stop();
+            System.exit(2);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop, "daemon-shutdown"));
+
+        Instant processStart = ProcessHandle.current().info().startInstant().orElse(Instant.now());
+        logger.log(Level.INFO, "Daemon started in " + Duration.between(processStart, Instant.now()).toMillis() + " ms.");
+        daemon.awaitStop();
+    }
+}
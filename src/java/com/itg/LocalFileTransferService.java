@@ -1,14 +1,26 @@
 package com.itg;
 
+import com.itg.transfer.FileEntry;
+import com.itg.transfer.FileListing;
+import com.itg.transfer.PartialFiles;
+
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
-public class LocalFileTransferService implements FileTransferService{
+public class LocalFileTransferService implements FileTransferService {
 
     @Override
     public void connect() {
@@ -21,19 +33,74 @@ public class LocalFileTransferService implements FileTransferService{
     }
 
     @Override
-    public void transferFile(Path sourcePath, Path destinationPath) throws IOException {
-        Files.copy(sourcePath, destinationPath, StandardCopyOption.REPLACE_EXISTING);
+    public FileEntry stat(String path) throws IOException {
+        Path file = Paths.get(path);
+        try {
+            return toEntry(file, Files.readAttributes(file, BasicFileAttributes.class));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
     }
 
     @Override
-    public byte[] getFile(Path path) throws IOException {
-        return Files.readAllBytes(path);
+    public ReadableByteChannel openRead(String path, long offset) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        channel.position(offset);
+        return channel;
     }
 
     @Override
-    public List<Path> listFiles(Path dir) throws IOException {
-        try (Stream<Path> paths = Files.walk(dir)) {
-            return paths.filter(Files::isRegularFile).collect(Collectors.toList());
+    public WritableByteChannel openWrite(String path, long offset) throws IOException {
+        Path file = Paths.get(path);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
         }
+        FileChannel channel = offset > 0
+                ? FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.position(offset);
+        return channel;
+    }
+
+    @Override
+    public void publish(String partialPath, String path) throws IOException {
+        PartialFiles.publish(Paths.get(partialPath), Paths.get(path));
+    }
+
+    @Override
+    public boolean delete(String path) throws IOException {
+        return Files.deleteIfExists(Paths.get(path));
+    }
+
+    @Override
+    public FileListing list(String dir, Predicate<FileEntry> directoryFilter, int batchSize) {
+        return new FileListing(dir, directoryFilter, batchSize) {
+            @Override
+            protected Stream<FileEntry> readDirectory(String directory) throws IOException {
+                return Files.list(Paths.get(directory)).map(LocalFileTransferService::readEntry).filter(Objects::nonNull);
+            }
+        };
+    }
+
+    @Override
+    public boolean isRemote() {
+        return false;
+    }
+
+    private static FileEntry readEntry(Path file) {
+        try {
+            return toEntry(file, Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+        } catch (NoSuchFileException e) {
+            // Moved away since the directory was read
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static FileEntry toEntry(Path file, BasicFileAttributes attrs) {
+        Path name = file.getFileName();
+        return new FileEntry(file.toString(), name == null ? "" : name.toString(), attrs.size(),
+                attrs.lastModifiedTime().toMillis(), attrs.isDirectory());
     }
 }
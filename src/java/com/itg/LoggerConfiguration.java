@@ -1,45 +1,60 @@
 package com.itg;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.List;
-import java.util.logging.FileHandler;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Handler;
-import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
 
 public class LoggerConfiguration {
 
+    private static final Map<String, Handler> installed = new HashMap<>();
+    private static int queueCapacity = AsyncLogHandler.DEFAULT_CAPACITY;
+    private static AsyncLogHandler.OverflowPolicy overflowPolicy = AsyncLogHandler.OverflowPolicy.BLOCK;
+
     /**
-     * Configures the logger to write to a log file in the specified directories.
-     * The log file name is based on the current date.
-     *
-     * @param bankPath Bank path
-     * @return List of FileHandlers
+     * @param capacity Number of log records buffered for the log file, applies to handlers configured afterwards
      */
+    public static synchronized void setQueueCapacity(int capacity) {
+        queueCapacity = capacity;
+    }
 
-    public static FileHandler configureLogger(String bankPath) {
-        String logFilePath = bankPath + "/logs/transfer.log";
+    /**
+     * @param policy What happens to a log record when the buffer is full, applies to handlers configured afterwards
+     */
+    public static synchronized void setOverflowPolicy(AsyncLogHandler.OverflowPolicy policy) {
+        overflowPolicy = policy;
+    }
 
-        File file = new File(logFilePath);
-        if (!file.getParentFile().exists()) {
-            file.getParentFile().mkdirs();
+    /**
+     * Configures the logger to write to {@code logs/transfer.log} in the specified directory, rolled over daily.
+     * The file is written asynchronously in batches. Configuring the same logger and directory again returns the
+     * handler already attached instead of adding another one.
+     *
+     * @param logger      Logger to configure
+     * @param loggingPath Logging directory
+     * @return Handler attached to the logger
+     */
+    public static synchronized Handler configureLogger(Logger logger, String loggingPath) {
+        Path logDir = Paths.get(loggingPath, "logs").toAbsolutePath().normalize();
+        String key = logger.getName() + "|" + logDir;
+        Handler current = installed.get(key);
+        if (current != null) {
+            return current;
         }
 
-        FileHandler fileHandler = null;
+        RollingFileHandler fileHandler;
         try {
-            fileHandler = new FileHandler(logFilePath, true);
+            fileHandler = new RollingFileHandler(logDir, "transfer");
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new UncheckedIOException(e);
         }
-        fileHandler.setFormatter(new SimpleFormatter());
-
-        return fileHandler;
+        AsyncLogHandler handler = new AsyncLogHandler(fileHandler, queueCapacity, overflowPolicy);
+        logger.addHandler(handler);
+        installed.put(key, handler);
+        return handler;
     }
 }
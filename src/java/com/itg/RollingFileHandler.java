@@ -1,17 +1,102 @@
 package com.itg;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.logging.FileHandler;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.logging.ErrorManager;
+import java.util.logging.LogRecord;
+import java.util.logging.StreamHandler;
 
-public class RollingFileHandler extends FileHandler {
+/**
+ * Writes log records to {@code <baseName>.log} and rolls it over to {@code <baseName>-yyyy-MM-dd.log} when the day
+ * changes. Records are buffered and only written out on {@link #flush()}, so a caller publishing a batch pays for a
+ * single write.
+ */
+public class RollingFileHandler extends StreamHandler {
 
-    public RollingFileHandler() throws IOException {
-        super(fileName(), 0, 1, true);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final String baseName;
+    private LocalDate day;
+
+    /**
+     * @param directory Directory the log files are written to
+     * @param baseName  Name of the log files without extension
+     */
+    public RollingFileHandler(Path directory, String baseName) throws IOException {
+        this.directory = directory;
+        this.baseName = baseName;
+        Files.createDirectories(directory);
+        setFormatter(new TransferLogFormatter());
+        try {
+            setEncoding(StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            // Every Java platform has to support UTF-8
+            throw new IllegalStateException(e);
+        }
+
+        Path current = currentFile();
+        day = LocalDate.now();
+        if (Files.exists(current)) {
+            LocalDate lastWritten = LocalDate.ofInstant(Files.getLastModifiedTime(current).toInstant(), ZoneId.systemDefault());
+            if (lastWritten.isBefore(day)) {
+                Files.move(current, rolledFile(lastWritten));
+            }
+        }
+        setOutputStream(open());
+    }
+
+    /**
+     * @return File the records are currently written to
+     */
+    public Path currentFile() {
+        return directory.resolve(baseName + ".log");
+    }
+
+    @Override
+    public synchronized void publish(LogRecord record) {
+        LocalDate recordDay = LocalDate.ofInstant(Instant.ofEpochMilli(record.getMillis()), ZoneId.systemDefault());
+        if (recordDay.isAfter(day)) {
+            roll(recordDay);
+        }
+        super.publish(record);
+    }
+
+    private void roll(LocalDate newDay) {
+        try {
+            // Closes the current file before it is renamed
+            setOutputStream(OutputStream.nullOutputStream());
+            Files.move(currentFile(), rolledFile(day));
+        } catch (IOException e) {
+            reportError("Unable to roll log file " + currentFile(), e, ErrorManager.GENERIC_FAILURE);
+        }
+        day = newDay;
+        try {
+            setOutputStream(open());
+        } catch (IOException e) {
+            reportError("Unable to open log file " + currentFile(), e, ErrorManager.OPEN_FAILURE);
+        }
+    }
+
+    private OutputStream open() throws IOException {
+        return new BufferedOutputStream(Files.newOutputStream(currentFile(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND), BUFFER_SIZE);
     }
 
-    private static String fileName() {
-        return new SimpleDateFormat("'%h'yyyyMMdd_HHmmss").format(new Date(System.currentTimeMillis()));
+    private Path rolledFile(LocalDate rolledDay) {
+        Path rolled = directory.resolve(baseName + "-" + rolledDay + ".log");
+        for (int i = 1; Files.exists(rolled); i++) {
+            rolled = directory.resolve(baseName + "-" + rolledDay + "." + i + ".log");
+        }
+        return rolled;
     }
 }
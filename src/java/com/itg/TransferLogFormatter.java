@@ -0,0 +1,36 @@
+package com.itg;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * One line per record: time, level, logger and message, followed by the stack trace if there is one.
+ * The message parameters are formatted here, on the thread writing the log file, not on the thread that logged.
+ * Unlike {@link java.util.logging.SimpleFormatter} the caller is not printed, inferring it walks the stack.
+ */
+public class TransferLogFormatter extends Formatter {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    @Override
+    public String format(LogRecord record) {
+        StringBuilder line = new StringBuilder(128);
+        TIME_FORMAT.formatTo(Instant.ofEpochMilli(record.getMillis()), line);
+        line.append(' ').append(record.getLevel().getName())
+                .append(' ').append(record.getLoggerName())
+                .append(" - ").append(formatMessage(record))
+                .append(System.lineSeparator());
+        if (record.getThrown() != null) {
+            StringWriter trace = new StringWriter();
+            record.getThrown().printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+        return line.toString();
+    }
+}
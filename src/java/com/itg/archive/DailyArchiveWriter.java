@@ -0,0 +1,475 @@
+package com.itg.archive;
+
+import com.itg.transfer.PartialFiles;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Packs archived messages into one zip container per day instead of keeping one file per message.
+ * <p>
+ * The transfer path only copies a message into the staging folder ({@link #stagingPath(String)}) and hands it over
+ * with {@link #archive(Path)}, which never blocks. A single background thread compresses the staged files into the
+ * current part of the day ({@code yyyy/MM/yyyy-MM-dd-NNN.zip}). A part is closed after {@code maxEntriesPerPart}
+ * entries, after the roll interval or when the day changes. Only then is it renamed into place, its entries
+ * appended to the day index ({@code yyyy/MM/yyyy-MM-dd.idx}) and the staged files deleted, so a crash at any
+ * point loses nothing: unfinished parts are discarded and the staged files are packed again on the next start.
+ * <p>
+ * A message resent under the same name is packed into the same part under a numbered entry name ({@code name~2}),
+ * the index line then names the entry after the container.
+ */
+public class DailyArchiveWriter implements MessageArchive {
+
+    static Logger logger = Logger.getLogger("BankMessageMover");
+
+    public static final String STAGING_FOLDER = ".staging";
+    public static final int DEFAULT_MAX_ENTRIES_PER_PART = 1000;
+    public static final long DEFAULT_ROLL_INTERVAL_MINUTES = 5;
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE;
+    private static final String PART_SUFFIX = ".zip";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final char INDEX_SEPARATOR = '\t';
+
+    private final Path archiveDir;
+    private final Path stagingDir;
+    private int maxEntriesPerPart = DEFAULT_MAX_ENTRIES_PER_PART;
+    private long rollIntervalMillis = TimeUnit.MINUTES.toMillis(DEFAULT_ROLL_INTERVAL_MINUTES);
+    private ScheduledExecutorService writer;
+
+    // Only touched by the writer thread
+    private Part part;
+
+    /**
+     * @param archiveDir Archive directory the containers and the staging folder are kept in
+     */
+    public DailyArchiveWriter(Path archiveDir) {
+        this.archiveDir = archiveDir;
+        this.stagingDir = archiveDir.resolve(STAGING_FOLDER);
+    }
+
+    /**
+     * @param maxEntriesPerPart Number of messages after which a part is closed
+     */
+    public void setMaxEntriesPerPart(int maxEntriesPerPart) {
+        this.maxEntriesPerPart = Math.max(1, maxEntriesPerPart);
+    }
+
+    /**
+     * @param rollIntervalMillis Time after which an open part is closed, even if it is not full
+     */
+    public void setRollInterval(long rollIntervalMillis) {
+        this.rollIntervalMillis = Math.max(1000, rollIntervalMillis);
+    }
+
+    /**
+     * Discards parts a crash left unfinished, starts the writer thread and queues every file still staged.
+     */
+    @Override
+    public void start() throws IOException {
+        Files.createDirectories(stagingDir);
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "archive-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.execute(this::recover);
+        long checkMillis = Math.max(1000, rollIntervalMillis / 4);
+        writer.scheduleWithFixedDelay(this::rollIfDue, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param fileName Name of the message, may contain folders
+     * @return New path the message has to be copied to before it is handed over, in the staging folder of today
+     */
+    @Override
+    public Path stagingPath(String fileName) {
+        return StagedMessage.newPath(stagingDir, fileName);
+    }
+
+    /**
+     * @return Folder the messages are staged in before they are packed
+     */
+    @Override
+    public Path getStagingDir() {
+        return stagingDir;
+    }
+
+    /**
+     * Queues a staged message for packing, returns immediately. The containers do not need the digest.
+     */
+    @Override
+    public void archive(Path stagedFile, byte[] digest) {
+        archive(stagedFile);
+    }
+
+    /**
+     * Queues a staged message for packing, returns immediately.
+     *
+     * @param stagedFile File below the staging folder
+     */
+    public void archive(Path stagedFile) {
+        ScheduledExecutorService current = writer;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.execute(() -> append(stagedFile));
+        } catch (RejectedExecutionException e) {
+            // Shut down in the meantime, the file is packed after the next start
+        }
+    }
+
+    /**
+     * Finds the part a message of a day was packed into.
+     *
+     * @param day  Day the message was archived
+     * @param name Name of the message as it was staged
+     * @return Latest part containing the message or null
+     */
+    public Path locate(LocalDate day, String name) throws IOException {
+        String[] entry = locateEntry(day, name);
+        return entry == null ? null : dayDir(day).resolve(entry[0]);
+    }
+
+    /**
+     * Opens a packed message.
+     *
+     * @param day  Day the message was archived
+     * @param name Name of the message as it was staged
+     * @return Content of the message, null if it is not packed (yet)
+     */
+    public InputStream open(LocalDate day, String name) throws IOException {
+        String[] located = locateEntry(day, name);
+        if (located == null) {
+            return null;
+        }
+        ZipFile zip = new ZipFile(dayDir(day).resolve(located[0]).toFile());
+        ZipEntry entry = zip.getEntry(located[1]);
+        if (entry == null) {
+            zip.close();
+            return null;
+        }
+        return new FilterInputStream(zip.getInputStream(entry)) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    zip.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return Container and entry name of the latest copy of the message, null if it is not packed
+     */
+    private String[] locateEntry(LocalDate day, String name) throws IOException {
+        Path index = dayDir(day).resolve(day.format(DAY_FORMAT) + INDEX_SUFFIX);
+        if (!Files.exists(index)) {
+            return null;
+        }
+        String[] located = null;
+        try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // name, container and, if it differs from the name, the entry
+                String[] fields = line.split(String.valueOf(INDEX_SEPARATOR));
+                if (fields.length >= 2 && fields[0].equals(name)) {
+                    located = new String[]{fields[1], fields.length > 2 ? fields[2] : name};
+                }
+            }
+        }
+        return located;
+    }
+
+    /**
+     * Closes the open part and stops the writer thread. Messages still queued stay staged.
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService current = writer;
+        if (current == null) {
+            return;
+        }
+        writer = null;
+        try {
+            current.submit(this::closePart).get();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            logger.log(Level.WARNING, "Unable to close archive container.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        current.shutdownNow();
+    }
+
+    private void recover() {
+        try {
+            if (Files.isDirectory(archiveDir)) {
+                // Parts live in yyyy/MM, the day folders of single archived files below are not walked
+                Files.walkFileTree(archiveDir, EnumSet.noneOf(FileVisitOption.class), 3, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        return dir.equals(stagingDir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        if (file.getFileName().toString().endsWith(PART_SUFFIX + TEMP_SUFFIX)) {
+                            logger.log(Level.INFO, "Discarding unfinished archive container: " + file);
+                            Files.delete(file);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+            // Every copy is staged under a new path, a download interrupted before a restart is never continued
+            PartialFiles.deleteStale(stagingDir, PartialFiles.RETENTION_MILLIS);
+            List<Path> staged = new ArrayList<>();
+            Files.walkFileTree(stagingDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    // Partial files belong to downloads that are still to be continued
+                    if (!PartialFiles.isPartial(file.getFileName().toString())) {
+                        staged.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            if (!staged.isEmpty()) {
+                logger.log(Level.INFO, "Packing " + staged.size() + " staged archive file(s).");
+            }
+            staged.sort(null);
+            staged.forEach(this::append);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to recover archive containers.", e);
+        }
+    }
+
+    private void append(Path stagedFile) {
+        if (!Files.isRegularFile(stagedFile) || part != null && part.stagedFiles.contains(stagedFile)) {
+            // Already packed, e.g. queued by the transfer and by the recovery
+            return;
+        }
+        StagedMessage message;
+        try {
+            message = StagedMessage.parse(stagingDir, stagedFile);
+        } catch (DateTimeParseException e) {
+            message = null;
+        }
+        if (message == null) {
+            logger.log(Level.WARNING, "Staged archive file outside of a day folder: " + stagedFile);
+            return;
+        }
+
+        try {
+            if (part != null && !part.day.equals(message.day)) {
+                closePart();
+            }
+            if (part == null) {
+                part = openPart(message.day);
+            }
+            String entryName = message.name;
+            for (int copy = 2; part.entries.contains(entryName); copy++) {
+                entryName = message.name + "~" + copy;
+            }
+            ZipEntry entry = new ZipEntry(entryName);
+            entry.setLastModifiedTime(Files.getLastModifiedTime(stagedFile));
+            part.zip.putNextEntry(entry);
+            Files.copy(stagedFile, part.zip);
+            part.zip.closeEntry();
+            part.entries.add(entryName);
+            part.indexLines.add(entryName.equals(message.name)
+                    ? message.name + INDEX_SEPARATOR + part.target.getFileName()
+                    : message.name + INDEX_SEPARATOR + part.target.getFileName() + INDEX_SEPARATOR + entryName);
+            part.stagedFiles.add(stagedFile);
+            if (part.entries.size() >= maxEntriesPerPart) {
+                closePart();
+            }
+        } catch (IOException e) {
+            // The part cannot be trusted anymore, its files stay staged and are packed after the next start
+            logger.log(Level.SEVERE, "Unable to pack archive file: " + stagedFile, e);
+            discardPart();
+        }
+    }
+
+    private void rollIfDue() {
+        if (part == null) {
+            return;
+        }
+        boolean expired = System.nanoTime() - part.openedNanos >= TimeUnit.MILLISECONDS.toNanos(rollIntervalMillis);
+        if (expired || !part.day.equals(LocalDate.now())) {
+            closePart();
+        }
+    }
+
+    private Part openPart(LocalDate day) throws IOException {
+        Path dir = dayDir(day);
+        Files.createDirectories(dir);
+        String prefix = day.format(DAY_FORMAT) + "-";
+        int number = 1;
+        try (DirectoryStream<Path> parts = Files.newDirectoryStream(dir, prefix + "*" + PART_SUFFIX)) {
+            for (Path existing : parts) {
+                String partName = existing.getFileName().toString();
+                try {
+                    number = Math.max(number, Integer.parseInt(partName.substring(prefix.length(), partName.length() - PART_SUFFIX.length())) + 1);
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Path target = dir.resolve(prefix + String.format("%03d", number) + PART_SUFFIX);
+        return new Part(day, target);
+    }
+
+    private void closePart() {
+        Part closing = part;
+        part = null;
+        if (closing == null) {
+            return;
+        }
+        try {
+            closing.zip.finish();
+            closing.zip.flush();
+            closing.channel.force(true);
+            closing.zip.close();
+
+            Path index = closing.target.resolveSibling(closing.day.format(DAY_FORMAT) + INDEX_SUFFIX);
+            long indexSize = Files.exists(index) ? Files.size(index) : 0;
+            Files.move(closing.temp, closing.target, StandardCopyOption.ATOMIC_MOVE);
+            try (FileChannel indexChannel = FileChannel.open(index, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+                 Writer out = Channels.newWriter(indexChannel, StandardCharsets.UTF_8)) {
+                for (String line : closing.indexLines) {
+                    out.write(line + "\n");
+                }
+                out.flush();
+                indexChannel.force(true);
+            } catch (IOException e) {
+                // The staged files are kept and archived again on the next start, drop the part and the lines that
+                // made it into the index so neither points at a container with other contents later
+                truncateQuietly(index, indexSize);
+                deleteQuietly(closing.target);
+                throw e;
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Unable to close archive container: " + closing.target, e);
+            deleteQuietly(closing.temp);
+            return;
+        }
+        for (Path stagedFile : closing.stagedFiles) {
+            deleteQuietly(stagedFile);
+            deleteEmptyParents(stagedFile);
+        }
+        logger.log(Level.INFO, "Archived " + closing.entries.size() + " file(s) into " + closing.target);
+    }
+
+    private void discardPart() {
+        Part discarded = part;
+        part = null;
+        if (discarded == null) {
+            return;
+        }
+        try {
+            discarded.zip.close();
+        } catch (IOException e) {
+            // Deleted anyway
+        }
+        deleteQuietly(discarded.temp);
+    }
+
+    private Path dayDir(LocalDate day) {
+        return archiveDir.resolve(String.format("%04d", day.getYear())).resolve(String.format("%02d", day.getMonthValue()));
+    }
+
+    private void deleteEmptyParents(Path stagedFile) {
+        for (Path dir = stagedFile.getParent(); dir != null && !dir.equals(stagingDir); dir = dir.getParent()) {
+            try {
+                Files.delete(dir);
+            } catch (IOException e) {
+                // Not empty or already gone
+                return;
+            }
+        }
+    }
+
+    private static void truncateQuietly(Path file, long size) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        } catch (NoSuchFileException e) {
+            // Nothing was written
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to truncate " + file, e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to delete " + file, e);
+        }
+    }
+
+    /**
+     * Container being written.
+     */
+    private static class Part {
+
+        private final LocalDate day;
+        private final Path target;
+        private final Path temp;
+        private final FileChannel channel;
+        private final ZipOutputStream zip;
+        private final Set<String> entries = new LinkedHashSet<>();
+        private final List<String> indexLines = new ArrayList<>();
+        private final Set<Path> stagedFiles = new LinkedHashSet<>();
+        private final long openedNanos = System.nanoTime();
+
+        private Part(LocalDate day, Path target) throws IOException {
+            this.day = day;
+            this.target = target;
+            this.temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.zip = new ZipOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        }
+    }
+}
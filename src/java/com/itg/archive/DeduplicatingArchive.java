@@ -0,0 +1,454 @@
+package com.itg.archive;
+
+import com.itg.transfer.PartialFiles;
+import com.itg.transfer.StreamingFileCopier;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Content-addressed archive: every distinct message is stored once, under the SHA-256 digest the transfer computed
+ * for its verification ({@code .blobs/ab/abcdef...}). A resent message only adds a line to the index of its day
+ * ({@code yyyy/MM/yyyy-MM-dd.refs}, name and digest separated by a tab) and its staged copy is deleted.
+ * <p>
+ * A single background thread owns the store. It appends the index lines of a batch and forces them to disk before
+ * it moves the staged files into the store, so a crash never leaves a message without an index line: files still
+ * staged are handed over again on the next start. The references of every blob are counted from the indexes at
+ * start. When the retention removes the index of a day, the blobs no other index references are deleted.
+ */
+public class DeduplicatingArchive implements MessageArchive {
+
+    static Logger logger = Logger.getLogger("BankMessageMover");
+
+    public static final String STAGING_FOLDER = DailyArchiveWriter.STAGING_FOLDER;
+    public static final String BLOB_FOLDER = ".blobs";
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE;
+    private static final String INDEX_SUFFIX = ".refs";
+    private static final char INDEX_SEPARATOR = '\t';
+    private static final int MAX_PENDING = 256;
+    private static final long RETENTION_CHECK_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Path archiveDir;
+    private final Path stagingDir;
+    private final Path blobDir;
+    private int retentionDays;
+    private ScheduledExecutorService writer;
+
+    // Only touched by the writer thread
+    private final Map<String, Integer> references = new HashMap<>();
+    private final Map<Path, Pending> pending = new LinkedHashMap<>();
+
+    /**
+     * @param archiveDir Archive directory the store, the indexes and the staging folder are kept in
+     */
+    public DeduplicatingArchive(Path archiveDir) {
+        this.archiveDir = archiveDir;
+        this.stagingDir = archiveDir.resolve(STAGING_FOLDER);
+        this.blobDir = archiveDir.resolve(BLOB_FOLDER);
+    }
+
+    /**
+     * @param retentionDays Days an index is kept, 0 to keep every day
+     */
+    public void setRetentionDays(int retentionDays) {
+        this.retentionDays = Math.max(0, retentionDays);
+    }
+
+    /**
+     * Counts the references from the indexes, removes blobs nothing references, starts the writer thread and
+     * hands over every file still staged.
+     */
+    @Override
+    public void start() throws IOException {
+        Files.createDirectories(stagingDir);
+        Files.createDirectories(blobDir);
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "archive-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer.execute(this::recover);
+        writer.scheduleWithFixedDelay(this::flush, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        writer.scheduleWithFixedDelay(this::expire, RETENTION_CHECK_MILLIS, RETENTION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Path stagingPath(String fileName) {
+        return StagedMessage.newPath(stagingDir, fileName);
+    }
+
+    @Override
+    public Path getStagingDir() {
+        return stagingDir;
+    }
+
+    /**
+     * Queues a staged message, returns immediately. Without a digest the file is hashed by the writer thread.
+     */
+    @Override
+    public void archive(Path stagedFile, byte[] digest) {
+        ScheduledExecutorService current = writer;
+        if (current == null) {
+            return;
+        }
+        String hash = digest == null ? null : HexFormat.of().formatHex(digest);
+        try {
+            current.execute(() -> add(stagedFile, hash));
+        } catch (RejectedExecutionException e) {
+            // Shut down in the meantime, the file is handed over after the next start
+        }
+    }
+
+    /**
+     * Finds the stored content of a message.
+     *
+     * @param day  Day the message was archived
+     * @param name Name of the message as it was staged
+     * @return Blob of the message or null
+     */
+    public Path locate(LocalDate day, String name) throws IOException {
+        Path index = indexPath(day);
+        if (!Files.exists(index)) {
+            return null;
+        }
+        String hash = null;
+        try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.lastIndexOf(INDEX_SEPARATOR);
+                if (separator > 0 && line.substring(0, separator).equals(name)) {
+                    hash = line.substring(separator + 1);
+                }
+            }
+        }
+        return hash == null ? null : blobPath(hash);
+    }
+
+    /**
+     * Opens an archived message.
+     *
+     * @param day  Day the message was archived
+     * @param name Name of the message as it was staged
+     * @return Content of the message, null if it is not archived (yet)
+     */
+    public InputStream open(LocalDate day, String name) throws IOException {
+        Path blob = locate(day, name);
+        return blob == null || !Files.exists(blob) ? null : Files.newInputStream(blob);
+    }
+
+    /**
+     * Stores the queued messages and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService current = writer;
+        if (current == null) {
+            return;
+        }
+        writer = null;
+        try {
+            current.submit(this::flush).get();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            logger.log(Level.WARNING, "Unable to flush the archive.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        current.shutdownNow();
+    }
+
+    private void recover() {
+        try {
+            Files.walkFileTree(archiveDir, EnumSet.noneOf(FileVisitOption.class), 3, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return dir.equals(stagingDir) || dir.equals(blobDir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (file.getFileName().toString().endsWith(INDEX_SUFFIX)) {
+                        readIndex(file).forEach(hash -> references.merge(hash, 1, Integer::sum));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+            // Left by a crash during the retention, after the index was deleted
+            List<Path> orphans = new ArrayList<>();
+            Files.walkFileTree(blobDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (!references.containsKey(file.getFileName().toString())) {
+                        orphans.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            orphans.forEach(DeduplicatingArchive::deleteQuietly);
+
+            // Every copy is staged under a new path, a download interrupted before a restart is never continued
+            PartialFiles.deleteStale(stagingDir, PartialFiles.RETENTION_MILLIS);
+            List<Path> staged = new ArrayList<>();
+            Files.walkFileTree(stagingDir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    // Partial files belong to downloads that are still to be continued
+                    if (!PartialFiles.isPartial(file.getFileName().toString())) {
+                        staged.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            if (!staged.isEmpty()) {
+                logger.log(Level.INFO, "Archiving " + staged.size() + " staged archive file(s).");
+            }
+            staged.sort(null);
+            staged.forEach(file -> add(file, null));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to recover the archive.", e);
+        }
+        expire();
+    }
+
+    private void add(Path stagedFile, String hash) {
+        if (!Files.isRegularFile(stagedFile) || pending.containsKey(stagedFile)) {
+            // Already stored, e.g. queued by the transfer and by the recovery
+            return;
+        }
+        StagedMessage message;
+        try {
+            message = StagedMessage.parse(stagingDir, stagedFile);
+        } catch (DateTimeParseException e) {
+            message = null;
+        }
+        if (message == null) {
+            logger.log(Level.WARNING, "Staged archive file outside of a day folder: " + stagedFile);
+            return;
+        }
+        try {
+            pending.put(stagedFile, new Pending(message.day, message.name, hash != null ? hash : hash(stagedFile)));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to hash archive file: " + stagedFile, e);
+            return;
+        }
+        if (pending.size() >= MAX_PENDING) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<Path, Pending>> batch = new ArrayList<>(pending.entrySet());
+        pending.clear();
+
+        Map<LocalDate, List<Pending>> byDay = new LinkedHashMap<>();
+        batch.forEach(entry -> byDay.computeIfAbsent(entry.getValue().day, day -> new ArrayList<>()).add(entry.getValue()));
+        try {
+            for (Map.Entry<LocalDate, List<Pending>> day : byDay.entrySet()) {
+                appendIndex(day.getKey(), day.getValue());
+            }
+        } catch (IOException e) {
+            // The files stay staged and are stored after the next start
+            logger.log(Level.SEVERE, "Unable to write the archive index.", e);
+            return;
+        }
+
+        int stored = 0;
+        for (Map.Entry<Path, Pending> entry : batch) {
+            Path stagedFile = entry.getKey();
+            String hash = entry.getValue().hash;
+            references.merge(hash, 1, Integer::sum);
+            Path blob = blobPath(hash);
+            try {
+                if (Files.exists(blob)) {
+                    Files.delete(stagedFile);
+                } else {
+                    Files.createDirectories(blob.getParent());
+                    Files.move(stagedFile, blob, StandardCopyOption.ATOMIC_MOVE);
+                    stored++;
+                }
+            } catch (IOException e) {
+                // Indexed already, storing it again after the next start only adds a second line
+                logger.log(Level.SEVERE, "Unable to store archive file: " + stagedFile, e);
+                continue;
+            }
+            deleteEmptyParents(stagedFile);
+        }
+        logger.log(Level.INFO, "Archived " + batch.size() + " file(s), " + (batch.size() - stored) + " already stored.");
+    }
+
+    /**
+     * Deletes the indexes of the days past the retention and the blobs only they referenced.
+     */
+    private void expire() {
+        if (retentionDays <= 0 || !Files.isDirectory(archiveDir)) {
+            return;
+        }
+        LocalDate oldestKept = LocalDate.now().minusDays(retentionDays);
+        List<Path> expired = new ArrayList<>();
+        try {
+            Files.walkFileTree(archiveDir, EnumSet.noneOf(FileVisitOption.class), 3, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return dir.equals(stagingDir) || dir.equals(blobDir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String fileName = file.getFileName().toString();
+                    if (fileName.endsWith(INDEX_SUFFIX)) {
+                        try {
+                            LocalDate day = LocalDate.parse(fileName.substring(0, fileName.length() - INDEX_SUFFIX.length()), DAY_FORMAT);
+                            if (day.isBefore(oldestKept)) {
+                                expired.add(file);
+                            }
+                        } catch (DateTimeParseException e) {
+                            // Not one of ours
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to look for expired archive days.", e);
+            return;
+        }
+
+        int deleted = 0;
+        for (Path index : expired) {
+            try {
+                List<String> hashes = readIndex(index);
+                Files.delete(index);
+                for (String hash : hashes) {
+                    if (references.merge(hash, -1, Integer::sum) <= 0) {
+                        references.remove(hash);
+                        deleteQuietly(blobPath(hash));
+                        deleted++;
+                    }
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to expire archive index: " + index, e);
+            }
+        }
+        if (!expired.isEmpty()) {
+            logger.log(Level.INFO, "Expired " + expired.size() + " archive day(s), deleted " + deleted + " unreferenced file(s).");
+        }
+    }
+
+    private void appendIndex(LocalDate day, List<Pending> entries) throws IOException {
+        Path index = indexPath(day);
+        Files.createDirectories(index.getParent());
+        try (FileChannel indexChannel = FileChannel.open(index, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+             Writer out = Channels.newWriter(indexChannel, StandardCharsets.UTF_8)) {
+            for (Pending entry : entries) {
+                out.write(entry.name + INDEX_SEPARATOR + entry.hash + "\n");
+            }
+            out.flush();
+            indexChannel.force(true);
+        }
+    }
+
+    private static List<String> readIndex(Path index) throws IOException {
+        List<String> hashes = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.lastIndexOf(INDEX_SEPARATOR);
+                if (separator > 0) {
+                    hashes.add(line.substring(separator + 1));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest = StreamingFileCopier.newDigest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private Path blobPath(String hash) {
+        return blobDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Path indexPath(LocalDate day) {
+        return archiveDir.resolve(String.format("%04d", day.getYear())).resolve(String.format("%02d", day.getMonthValue()))
+                .resolve(day.format(DAY_FORMAT) + INDEX_SUFFIX);
+    }
+
+    private void deleteEmptyParents(Path stagedFile) {
+        for (Path dir = stagedFile.getParent(); dir != null && !dir.equals(stagingDir); dir = dir.getParent()) {
+            try {
+                Files.delete(dir);
+            } catch (IOException e) {
+                // Not empty or already gone
+                return;
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to delete " + file, e);
+        }
+    }
+
+    /**
+     * Staged message waiting for the next flush.
+     */
+    private static class Pending {
+
+        private final LocalDate day;
+        private final String name;
+        private final String hash;
+
+        private Pending(LocalDate day, String name, String hash) {
+            this.day = day;
+            this.name = name;
+            this.hash = hash;
+        }
+    }
+}
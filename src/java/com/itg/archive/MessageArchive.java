@@ -0,0 +1,42 @@
+package com.itg.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Archive backend the movers hand archived messages to.
+ * A message is first copied into the staging folder, then handed over and owned by the archive from then on.
+ */
+public interface MessageArchive extends Closeable {
+
+    /**
+     * Prepares the archive directory and hands over the messages a crash left staged.
+     */
+    void start() throws IOException;
+
+    /**
+     * @param fileName Name of the message, may contain folders
+     * @return Path the message has to be copied to before it is handed over, in the staging folder of today
+     */
+    Path stagingPath(String fileName);
+
+    /**
+     * @return Folder the messages are staged in before they are handed over
+     */
+    Path getStagingDir();
+
+    /**
+     * Hands a staged message over, returns immediately.
+     *
+     * @param stagedFile File below the staging folder
+     * @param digest     SHA-256 digest of the file computed while it was copied, null if it is not known
+     */
+    void archive(Path stagedFile, byte[] digest);
+
+    /**
+     * Stops the archive. Messages not handed over completely stay staged for the next start.
+     */
+    @Override
+    void close();
+}
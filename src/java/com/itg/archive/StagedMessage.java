@@ -0,0 +1,55 @@
+package com.itg.archive;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Layout of the staging folder shared by the archive backends: {@code <day>/@<token>/<name>}.
+ * Every staged copy gets a folder of its own, so two messages with the same name staged on the same day never
+ * overwrite each other. Files staged without a token folder by earlier versions are still recognized.
+ */
+final class StagedMessage {
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ISO_LOCAL_DATE;
+    private static final String TOKEN_PREFIX = "@";
+    private static final AtomicLong sequence = new AtomicLong();
+    private static final String instance = Long.toHexString(System.currentTimeMillis());
+
+    final LocalDate day;
+    final String name;
+
+    private StagedMessage(LocalDate day, String name) {
+        this.day = day;
+        this.name = name;
+    }
+
+    /**
+     * @param stagingDir Staging folder
+     * @param fileName   Name of the message, may contain folders
+     * @return New staging path of the message in the folder of today
+     */
+    static Path newPath(Path stagingDir, String fileName) {
+        String token = TOKEN_PREFIX + instance + "-" + Long.toHexString(sequence.incrementAndGet());
+        return stagingDir.resolve(LocalDate.now().format(DAY_FORMAT)).resolve(token).resolve(fileName);
+    }
+
+    /**
+     * @param stagingDir Staging folder
+     * @param stagedFile File below the staging folder
+     * @return Day and name of the message, null if the file is not in a day folder
+     * @throws DateTimeParseException If the first folder is not a day
+     */
+    static StagedMessage parse(Path stagingDir, Path stagedFile) {
+        Path relative = stagingDir.relativize(stagedFile);
+        if (relative.getNameCount() < 2) {
+            return null;
+        }
+        LocalDate day = LocalDate.parse(relative.getName(0).toString(), DAY_FORMAT);
+        int nameStart = relative.getNameCount() > 2 && relative.getName(1).toString().startsWith(TOKEN_PREFIX) ? 2 : 1;
+        String name = relative.subpath(nameStart, relative.getNameCount()).toString().replace('\\', '/');
+        return new StagedMessage(day, name);
+    }
+}
@@ -0,0 +1,16 @@
+package com.itg.journal;
+
+import lombok.Data;
+
+/**
+ * Latest journaled state of a single transfer.
+ */
+@Data
+public class JournalEntry {
+
+    private final TransferState state;
+    private final long timestamp;
+    private final String source;
+    private final String destination;
+
+}
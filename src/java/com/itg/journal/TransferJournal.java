@@ -0,0 +1,252 @@
+package com.itg.journal;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the transfer states of the files a mover handles.
+ * <p>
+ * Every state change is appended as one line {@code crc \t state \t timestamp \t source \t destination}.
+ * Only the {@link TransferState#DETECTED} record has to be on disk before the destination is written,
+ * {@link #awaitDurable(long)} forces the channel for all threads waiting at the same time with a single fsync.
+ * Later states are written without forcing, losing them only means the recovery verifies the file again.
+ * <p>
+ * Finished transfers are dropped from memory right away and from the file on the next compaction.
+ */
+public class TransferJournal implements Closeable {
+
+    static Logger logger = Logger.getLogger("BankMessageMover");
+
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 10_000;
+    private static final String SEPARATOR = "\t";
+
+    private final Path journalFile;
+    private final int compactionThreshold;
+    private final Map<String, JournalEntry> unfinished = new LinkedHashMap<>();
+    private final Object syncLock = new Object();
+
+    private FileChannel channel;
+    private long appendedSequence;
+    private volatile long durableSequence;
+    private int recordsSinceCompaction;
+
+    private TransferJournal(Path journalFile, int compactionThreshold) {
+        this.journalFile = journalFile;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Opens the journal, replays the existing records and compacts the file.
+     *
+     * @param journalFile Journal file, created if it does not exist
+     * @return Opened journal
+     */
+    public static TransferJournal open(Path journalFile) throws IOException {
+        return open(journalFile, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens the journal, replays the existing records and compacts the file.
+     *
+     * @param journalFile         Journal file, created if it does not exist
+     * @param compactionThreshold Number of records after which the file is rewritten
+     * @return Opened journal
+     */
+    public static TransferJournal open(Path journalFile, int compactionThreshold) throws IOException {
+        if (journalFile.getParent() != null) {
+            Files.createDirectories(journalFile.getParent());
+        }
+        TransferJournal journal = new TransferJournal(journalFile, compactionThreshold);
+        journal.replay();
+        journal.compact();
+        return journal;
+    }
+
+    /**
+     * Appends a state change.
+     *
+     * @param state       New state
+     * @param source      Source of the transfer, used as key
+     * @param destination Destination of the transfer
+     * @return Sequence number to pass to {@link #awaitDurable(long)}
+     */
+    public synchronized long record(TransferState state, String source, String destination) throws IOException {
+        if (channel == null) {
+            throw new IOException("Transfer journal is closed: " + journalFile);
+        }
+        JournalEntry entry = new JournalEntry(state, System.currentTimeMillis(), source, destination);
+        ByteBuffer line = StandardCharsets.UTF_8.encode(format(entry));
+        while (line.hasRemaining()) {
+            channel.write(line);
+        }
+
+        if (state.isFinished()) {
+            unfinished.remove(source);
+        } else {
+            unfinished.put(source, entry);
+        }
+
+        long sequence = ++appendedSequence;
+        if (++recordsSinceCompaction >= compactionThreshold) {
+            compact();
+        }
+        return sequence;
+    }
+
+    /**
+     * Blocks until the record with the given sequence number is on disk.
+     * Threads waiting while another thread forces the channel are covered by the next single fsync.
+     *
+     * @param sequence Sequence number returned by {@link #record(TransferState, String, String)}
+     */
+    public void awaitDurable(long sequence) throws IOException {
+        if (durableSequence >= sequence) {
+            return;
+        }
+        synchronized (syncLock) {
+            while (durableSequence < sequence) {
+                long target;
+                FileChannel current;
+                synchronized (this) {
+                    target = appendedSequence;
+                    current = channel;
+                }
+                if (current == null) {
+                    throw new IOException("Transfer journal is closed: " + journalFile);
+                }
+                try {
+                    current.force(false);
+                } catch (ClosedChannelException e) {
+                    // Compacted in the meantime, the compaction forced everything written before
+                    continue;
+                }
+                synchronized (this) {
+                    durableSequence = Math.max(durableSequence, target);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param source Source of the transfer
+     * @return Unfinished entry for the source or null
+     */
+    public synchronized JournalEntry get(String source) {
+        return unfinished.get(source);
+    }
+
+    /**
+     * @return Snapshot of all transfers that were not finished yet, in the order they were started
+     */
+    public synchronized List<JournalEntry> unfinishedEntries() {
+        return new ArrayList<>(unfinished.values());
+    }
+
+    /**
+     * Rewrites the journal with the latest state of the unfinished transfers only.
+     */
+    public synchronized void compact() throws IOException {
+        Path tempFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (JournalEntry entry : unfinished.values()) {
+                ByteBuffer line = StandardCharsets.UTF_8.encode(format(entry));
+                while (line.hasRemaining()) {
+                    out.write(line);
+                }
+            }
+            out.force(true);
+        }
+
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        durableSequence = appendedSequence;
+        recordsSinceCompaction = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+            durableSequence = appendedSequence;
+        }
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JournalEntry entry = parse(line);
+                if (entry == null) {
+                    skipped++;
+                } else if (entry.getState().isFinished()) {
+                    unfinished.remove(entry.getSource());
+                } else {
+                    unfinished.put(entry.getSource(), entry);
+                }
+            }
+        }
+        if (skipped > 0) {
+            // A crash while appending leaves a torn last line behind
+            logger.log(Level.WARNING, "Skipped " + skipped + " damaged journal record(s) in " + journalFile);
+        }
+    }
+
+    private static String format(JournalEntry entry) {
+        String payload = entry.getState() + SEPARATOR + entry.getTimestamp() + SEPARATOR
+                + entry.getSource() + SEPARATOR + entry.getDestination();
+        return checksum(payload) + SEPARATOR + payload + "\n";
+    }
+
+    private static JournalEntry parse(String line) {
+        int index = line.indexOf(SEPARATOR);
+        if (index == -1) {
+            return null;
+        }
+        String payload = line.substring(index + 1);
+        if (!line.substring(0, index).equals(checksum(payload))) {
+            return null;
+        }
+        String[] fields = payload.split(SEPARATOR, 4);
+        if (fields.length != 4) {
+            return null;
+        }
+        try {
+            return new JournalEntry(TransferState.valueOf(fields[0]), Long.parseLong(fields[1]), fields[2], fields[3]);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String checksum(String payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+}
@@ -0,0 +1,31 @@
+package com.itg.journal;
+
+/**
+ * States a file passes through while it is moved from its source to its destination.
+ */
+public enum TransferState {
+    /**
+     * The file was picked up, the destination may already contain a partial copy.
+     */
+    DETECTED,
+    /**
+     * The copy finished but was not verified yet.
+     */
+    COPIED,
+    /**
+     * Source and destination match, only the source deletion is missing.
+     */
+    VERIFIED,
+    /**
+     * The source was deleted, the transfer is finished.
+     */
+    SOURCE_DELETED,
+    /**
+     * The destination was removed again, the source is picked up by the next scan.
+     */
+    DISCARDED;
+
+    public boolean isFinished() {
+        return this == SOURCE_DELETED || this == DISCARDED;
+    }
+}
@@ -1,28 +1,46 @@
 package com.itg.messagemover;
 
+import com.itg.ErrorNotifier;
+import com.itg.FileTransferService;
+import com.itg.LocalFileTransferService;
+import com.itg.archive.DailyArchiveWriter;
+import com.itg.archive.DeduplicatingArchive;
+import com.itg.archive.MessageArchive;
 import com.itg.LoggerConfiguration;
-import com.itg.AlertUtils;
-import javafx.application.Platform;
-import javafx.stage.Stage;
+import com.itg.journal.JournalEntry;
+import com.itg.journal.TransferJournal;
+import com.itg.journal.TransferState;
+import com.itg.metrics.Direction;
+import com.itg.metrics.MetricsRegistry;
+import com.itg.metrics.TransferMetrics;
+import com.itg.routing.Route;
+import com.itg.routing.RoutingRules;
+import com.itg.scan.AdaptiveScanScheduler;
+import com.itg.scan.FileChangeFeed;
+import com.itg.scan.ParallelTreeWalker;
+import com.itg.scan.ScanCadence;
+import com.itg.scan.WriteQuiescenceDetector;
+import com.itg.transfer.BatchResult;
+import com.itg.transfer.CopyResult;
+import com.itg.transfer.ExecutionMode;
+import com.itg.transfer.PartialFiles;
+import com.itg.transfer.TransferPipeline;
+import com.itg.transfer.TransferSink;
+import com.itg.transfer.TransferWorkerPool;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class BankMessageMover implements MessageMover {
-    private Stage stage;
+    private final ErrorNotifier errorNotifier;
 
     static Logger logger = Logger.getLogger("BankMessageMover");
 
@@ -31,31 +49,93 @@ public class BankMessageMover implements MessageMover {
     private static final Set<String> BANK_FOLDERS = new HashSet<>(Arrays.asList("FromODB"));
     private static final String FROM_ODB_FOLDER = "FromODB";
     private static final String BATCH_FOLDER = "batch";
-    private static final String MSG_ARCH_FOLDER = "msgArch";
+    private RoutingRules routingRules = RoutingRules.compile(BANK_FOLDERS, ALLOWED_FILE_EXTENSIONS);
     private long SCAN_INTERVAL_SECONDS;
-    private static final long TWO_MINUTES = 2 * 60 * 1000;
+    private long minScanIntervalSeconds = DEFAULT_MIN_SCAN_INTERVAL_SECONDS;
+    private long maxScanIntervalSeconds;
+    private static final long DEFAULT_MIN_SCAN_INTERVAL_SECONDS = 5;
+    private static final int DEFAULT_MAX_SCAN_INTERVAL_FACTOR = 8;
+    private static final long UNSEEN_FILE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long DEFAULT_RECONCILIATION_MINUTES = 30;
+    private static final int DEFAULT_TRANSFER_WORKERS = 4;
+    private static final int DEFAULT_PER_DESTINATION_LIMIT = 2;
+    private static final int TRANSFER_QUEUE_CAPACITY = 256;
     private volatile boolean stopProcessing = false;
 
-    private ScheduledExecutorService scheduler;
+    private AdaptiveScanScheduler scheduler;
+
+    private FileChangeFeed bankFeed;
+    private FileChangeFeed sboFeed;
+    private long reconciliationIntervalMinutes = DEFAULT_RECONCILIATION_MINUTES;
+
+    private Path journalFile;
+    private TransferJournal journal;
+    private boolean recovered;
+
+    private final FileTransferService localFiles = new LocalFileTransferService();
+    private final TransferPipeline pipeline = new TransferPipeline();
+    private boolean readBack = true;
+    private WriteQuiescenceDetector quiescence;
+    private long quiescenceMillis = WriteQuiescenceDetector.DEFAULT_QUIESCENCE_MILLIS;
+    private boolean lockProbe;
+    private final Map<String, String> markerSuffixes = new HashMap<>();
+    private final Set<String> archiveCopyFolders = new HashSet<>();
+    private final TransferMetrics metrics = new TransferMetrics("local");
+
+    private TransferWorkerPool workerPool;
+    private int transferWorkers = DEFAULT_TRANSFER_WORKERS;
+    private int perDestinationLimit = DEFAULT_PER_DESTINATION_LIMIT;
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+    private ParallelTreeWalker walker;
+    private int scanParallelism = ParallelTreeWalker.DEFAULT_PARALLELISM;
 
     private static final String FILE_SEPARATOR = FileSystems.getDefault().getSeparator();
 
 
     private Path archivationDir;
+    private boolean archiveContainers;
+    private boolean archiveDeduplication;
+    private int archiveRetentionDays;
+    private MessageArchive archiveWriter;
     private Path sboDir;
     private Path bankDir;
 
     private String printerName;
 
 
-    public BankMessageMover(Stage stage) {
-        this.stage = stage;
+    public BankMessageMover() {
+        this(ErrorNotifier.LOGGING);
+    }
+
+    /**
+     * @param errorNotifier Receives errors the user has to act on
+     */
+    public BankMessageMover(ErrorNotifier errorNotifier) {
+        this.errorNotifier = errorNotifier;
     }
 
     public void setScanInterval(long SCAN_INTERVAL_SECONDS) {
         this.SCAN_INTERVAL_SECONDS = SCAN_INTERVAL_SECONDS;
     }
 
+    /**
+     * Sets the shortest interval a direction is scanned at while files keep arriving.
+     *
+     * @param minScanIntervalSeconds Shortest scan interval in seconds
+     */
+    public void setMinScanInterval(long minScanIntervalSeconds) {
+        this.minScanIntervalSeconds = minScanIntervalSeconds;
+    }
+
+    /**
+     * Sets the longest interval an idle direction backs off to, 0 for eight times the scan interval.
+     *
+     * @param maxScanIntervalSeconds Longest scan interval in seconds
+     */
+    public void setMaxScanInterval(long maxScanIntervalSeconds) {
+        this.maxScanIntervalSeconds = maxScanIntervalSeconds;
+    }
+
     public void setArchivationDir(String archivationDir) {
         this.archivationDir = Paths.get(archivationDir);
     }
@@ -70,72 +150,420 @@ public class BankMessageMover implements MessageMover {
 
     public void setLoggingPath(String loggingPath) {
         configureLogger(loggingPath);
+        this.journalFile = Paths.get(loggingPath, "journal", "local-transfer.journal");
     }
 
     public void setPrinterName(String printerName) {
         this.printerName = printerName;
     }
 
+    /**
+     * Sets the number of threads copying files in parallel.
+     *
+     * @param transferWorkers Number of transfer workers
+     */
+    public void setTransferWorkers(int transferWorkers) {
+        this.transferWorkers = Math.max(1, transferWorkers);
+    }
+
+    /**
+     * Sets how many copies may write to the same destination directory at once.
+     *
+     * @param perDestinationLimit Number of concurrent copies per destination
+     */
+    public void setPerDestinationLimit(int perDestinationLimit) {
+        this.perDestinationLimit = Math.max(1, perDestinationLimit);
+    }
+
+    /**
+     * Sets how long a file has to stay unchanged before it is copied.
+     *
+     * @param quiescenceMillis Time size and modification time have to stay unchanged
+     */
+    public void setQuiescencePeriod(long quiescenceMillis) {
+        this.quiescenceMillis = quiescenceMillis;
+    }
+
+    /**
+     * Sets whether a file also has to accept an exclusive lock before it is copied.
+     *
+     * @param lockProbe If true, files still held open by their writer are not copied
+     */
+    public void setLockProbe(boolean lockProbe) {
+        this.lockProbe = lockProbe;
+    }
+
+    /**
+     * Makes the files below a top-level folder wait for a marker file instead of the quiescence period.
+     *
+     * @param folder Folder directly below the source directory
+     * @param suffix Suffix appended to the file name to form the marker name, e.g. {@code .done}
+     */
+    public void setMarkerSuffix(String folder, String suffix) {
+        markerSuffixes.put(folder, suffix);
+    }
+
+    /**
+     * Sets how many directories a full scan reads at the same time.
+     *
+     * @param scanParallelism Maximum number of directories listed in parallel
+     */
+    public void setScanParallelism(int scanParallelism) {
+        this.scanParallelism = Math.max(1, scanParallelism);
+    }
+
+    /**
+     * Sets the threads copies run on.
+     *
+     * @param executionMode {@link ExecutionMode#VIRTUAL} for one virtual thread per copy
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * Sets whether copies are verified by reading the destination back.
+     * Disable it only when the destination file system guarantees the written data, the size is still compared.
+     *
+     * @param readBack If false, the destination is not read again after the copy
+     */
+    public void setReadBackVerification(boolean readBack) {
+        this.readBack = readBack;
+    }
+
+    /**
+     * Sets whether archived messages are packed into daily zip containers instead of kept as single files.
+     *
+     * @param archiveContainers If true, msgArch files are packed by a {@link DailyArchiveWriter}
+     */
+    public void setArchiveContainers(boolean archiveContainers) {
+        this.archiveContainers = archiveContainers;
+    }
+
+    /**
+     * Sets whether archived messages are stored once per distinct content, referenced from a daily index.
+     * Takes precedence over the containers.
+     *
+     * @param archiveDeduplication If true, msgArch files are stored by a {@link DeduplicatingArchive}
+     */
+    public void setArchiveDeduplication(boolean archiveDeduplication) {
+        this.archiveDeduplication = archiveDeduplication;
+    }
+
+    /**
+     * Sets how long the deduplicating archive keeps a day.
+     *
+     * @param archiveRetentionDays Days after which the index of a day and the content only it references are deleted, 0 to keep everything
+     */
+    public void setArchiveRetentionDays(int archiveRetentionDays) {
+        this.archiveRetentionDays = archiveRetentionDays;
+    }
+
+    /**
+     * Keeps a copy of the bank files of a folder in the archive of the day, next to the copy sent to the SB side.
+     * Both copies are written from a single read of the file.
+     *
+     * @param folders Bank folders whose files are archived as well
+     */
+    public void setArchiveCopyFolders(List<String> folders) {
+        archiveCopyFolders.addAll(folders);
+    }
 
     /**
-     * Configures the logger to write to a log file in the specified directories.
-     * The log file name is based on the current date.
+     * Sets how often the whole tree is walked even though the change feed reported no overflow.
+     *
+     * @param reconciliationIntervalMinutes Minutes between two full walks
+     */
+    public void setReconciliationInterval(long reconciliationIntervalMinutes) {
+        this.reconciliationIntervalMinutes = reconciliationIntervalMinutes;
+    }
+
+
+    /**
+     * Configures the logger to write to a log file in the specified directory, rolled over daily.
+     * Configuring the logger again does not add another handler.
      */
     private void configureLogger(String loggingPath) {
-        FileHandler handler = LoggerConfiguration.configureLogger(loggingPath);
-        logger.addHandler(handler);
+        LoggerConfiguration.configureLogger(logger, loggingPath);
     }
 
     /*
      * Starts the file copying and scanning process.
-     * The process runs every 2 minutes.
-     * The process is started in a separate thread.
+     * Each direction is scanned on its own thread, more often while files arrive and less often while idle.
      */
     public void start() {
         logger.log(Level.INFO, "Application Started.");
 
-        scheduler = Executors.newScheduledThreadPool(2);
-        //scan interval configurable
-        scheduler.scheduleAtFixedRate(this::copyAndScanFiles, 0, SCAN_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        bankFeed = startChangeFeed(bankDir, true);
+        sboFeed = startChangeFeed(sboDir, false);
+        journal = openJournal();
+        recovered = false;
+        archiveWriter = startArchiveWriter();
+        quiescence = new WriteQuiescenceDetector(quiescenceMillis);
+        quiescence.setLockProbe(lockProbe);
+        markerSuffixes.forEach(quiescence::setMarkerSuffix);
+        workerPool = new TransferWorkerPool(transferWorkers, TRANSFER_QUEUE_CAPACITY, perDestinationLimit, executionMode);
+        walker = new ParallelTreeWalker("local", scanParallelism);
+        registerMetrics();
+
+        ScanCadence cadence = ScanCadence.ofSeconds(minScanIntervalSeconds, SCAN_INTERVAL_SECONDS,
+                maxScanIntervalSeconds > 0 ? maxScanIntervalSeconds : SCAN_INTERVAL_SECONDS * DEFAULT_MAX_SCAN_INTERVAL_FACTOR);
+        scheduler = new AdaptiveScanScheduler("local", 2);
+        scheduler.schedule(Direction.BANK_TO_SB.getLabel(), cadence, () -> copyAndScanFiles(true));
+        scheduler.schedule(Direction.SB_TO_BANK.getLabel(), cadence, () -> copyAndScanFiles(false));
     }
 
     public void stop() {
+        MetricsRegistry.getDefault().unregister(metrics);
         if (scheduler != null) {
             scheduler.shutdown();
             scheduler = null;
             logger.log(Level.INFO, "Application stopped.");
         }
+        if (workerPool != null) {
+            workerPool.shutdown();
+            workerPool = null;
+        }
+        if (walker != null) {
+            walker.shutdown();
+            walker = null;
+        }
+        if (archiveWriter != null) {
+            archiveWriter.close();
+            archiveWriter = null;
+        }
+        closeChangeFeed(bankFeed);
+        closeChangeFeed(sboFeed);
+        bankFeed = null;
+        sboFeed = null;
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to close transfer journal.", e);
+            }
+            journal = null;
+        }
     }
 
     /**
-     * Copies and scans files from the source directory to the destination directory.
-     * The files are copied if they are older than 2 minutes.
+     * Starts the deduplicating archive or the daily containers when one of them is enabled.
+     * If the archive directory cannot be prepared, messages are archived as single files.
+     *
+     * @return Started archive or null
      */
-    private void copyAndScanFiles() {
-        CompletableFuture<Void> bankToSBOFuture = CompletableFuture.runAsync(() -> {
-            scanAndCopyFiles(true);
+    private MessageArchive startArchiveWriter() {
+        if (!archiveDeduplication && !archiveContainers || archivationDir == null) {
+            return null;
+        }
+        MessageArchive writer;
+        if (archiveDeduplication) {
+            DeduplicatingArchive deduplicating = new DeduplicatingArchive(archivationDir);
+            deduplicating.setRetentionDays(archiveRetentionDays);
+            writer = deduplicating;
+        } else {
+            writer = new DailyArchiveWriter(archivationDir);
+        }
+        try {
+            writer.start();
+            return writer;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to start the archive in " + archivationDir + ", archiving single files.", e);
+            return null;
+        }
+    }
 
-        });
-        CompletableFuture<Void> sboToBankFuture = CompletableFuture.runAsync(() -> {
-            scanAndCopyFiles(false);
+    /**
+     * Opens the transfer journal next to the log files.
+     * If the journal cannot be opened, files are moved without crash recovery.
+     *
+     * @return Opened journal or null
+     */
+    private TransferJournal openJournal() {
+        if (journalFile == null) {
+            return null;
+        }
+        try {
+            return TransferJournal.open(journalFile);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to open transfer journal " + journalFile + ", crash recovery is disabled.", e);
+            return null;
+        }
+    }
 
-        });
+    /**
+     * Finishes the transfers the journal reports as unfinished, e.g. after a crash.
+     * Only these files are verified again, everything else is left to the regular scan.
+     */
+    private void recoverUnfinishedTransfers() {
+        if (journal == null) {
+            return;
+        }
+        List<JournalEntry> entries = journal.unfinishedEntries();
+        if (!entries.isEmpty()) {
+            logger.log(Level.INFO, "Recovering " + entries.size() + " unfinished transfer(s).");
+        }
+        for (JournalEntry entry : entries) {
+            try {
+                recoverTransfer(entry);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to recover transfer: " + entry.getSource(), e);
+            }
+        }
+    }
+
+    /**
+     * Continues a journaled transfer from its last recorded state.
+     *
+     * @param entry Unfinished journal entry
+     */
+    private void recoverTransfer(JournalEntry entry) throws IOException {
+        Path sourceFile = Paths.get(entry.getSource());
+        Path destinationFile = Paths.get(entry.getDestination());
+        boolean sourceExists = Files.exists(sourceFile);
+        boolean destinationExists = Files.exists(destinationFile);
+
+        if (!destinationExists) {
+            // Nothing usable was published, the next scan copies the source again and continues a partial copy
+            journal(TransferState.DISCARDED, sourceFile, destinationFile);
+            return;
+        }
+        if (!sourceExists) {
+            // The source is only deleted after verification
+            journal(TransferState.SOURCE_DELETED, sourceFile, destinationFile);
+            return;
+        }
+
+        if (entry.getState() != TransferState.VERIFIED) {
+            if (!compareFileHashes(sourceFile, destinationFile)) {
+                Files.delete(destinationFile);
+                journal(TransferState.DISCARDED, sourceFile, destinationFile);
+                logger.log(Level.WARNING, "Discarded incomplete copy: " + destinationFile);
+                return;
+            }
+            journal(TransferState.VERIFIED, sourceFile, destinationFile);
+        }
+        Files.delete(sourceFile);
+        journal(TransferState.SOURCE_DELETED, sourceFile, destinationFile);
+        logger.log(Level.INFO, "Recovered transfer: " + sourceFile + " to " + destinationFile);
+    }
+
+    /**
+     * Records a state change in the transfer journal.
+     * The detection is forced to disk before the destination gets written.
+     */
+    private void journal(TransferState state, Path sourceFile, Path destinationFile) throws IOException {
+        if (journal == null) {
+            return;
+        }
+        long sequence = journal.record(state, sourceFile.toString(), destinationFile.toString());
+        if (state == TransferState.DETECTED) {
+            journal.awaitDurable(sequence);
+        }
+    }
+
+    /**
+     * Starts a change feed for the source directory of one direction.
+     * If the directory cannot be watched, null is returned and every scan walks the whole tree.
+     *
+     * @param sourceDir Source directory
+     * @param fromBank  If true, the directory is the bank directory.
+     * @return Started change feed or null
+     */
+    private FileChangeFeed startChangeFeed(Path sourceDir, boolean fromBank) {
+        if (sourceDir == null || !Files.isDirectory(sourceDir)) {
+            return null;
+        }
+        try {
+            FileChangeFeed feed = new FileChangeFeed(sourceDir, dir -> isScannedDirectory(dir, fromBank),
+                    TimeUnit.MINUTES.toMillis(reconciliationIntervalMinutes));
+            feed.start();
+            return feed;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to watch " + sourceDir + ", falling back to full scans.", e);
+            return null;
+        }
+    }
 
+    private void closeChangeFeed(FileChangeFeed feed) {
+        if (feed == null) {
+            return;
+        }
         try {
-            CompletableFuture<Void> combinedFuture = CompletableFuture.allOf(bankToSBOFuture, sboToBankFuture);
-            combinedFuture.get();
-        } catch (InterruptedException | ExecutionException e) {
-            logger.log(Level.SEVERE, "Error during file copying and scanning.", e);
+            feed.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to close change feed.", e);
+        }
+    }
+
+    /**
+     * Copies and scans the files of one direction.
+     * The files are copied once their writer is done with them.
+     * The scanner queues the files into the worker pool, the cycle ends when every queued file was handled.
+     *
+     * @param fromBank If true, the files are copied from the bank directory to the SBO directory.
+     * @return Number of files queued or still waiting to settle, 0 if the direction was idle
+     */
+    private int copyAndScanFiles(boolean fromBank) {
+        long cycleStart = System.nanoTime();
+        recoverOnce();
+
+        TransferWorkerPool.Batch batch = workerPool.newBatch();
+        scanAndCopyFiles(fromBank, batch);
+        BatchResult result = batch.await();
+        if (result.getTotal() > 0) {
+            logger.log(Level.INFO, "Scan cycle finished: " + result.getSucceeded() + " file(s) moved, " + result.getFailed() + " failed.");
+        }
+        metrics.recordCycle(cycleStart);
+        quiescence.pruneUnseen(UNSEEN_FILE_MILLIS);
+
+        FileChangeFeed feed = fromBank ? bankFeed : sboFeed;
+        return (int) result.getTotal() + (feed == null ? 0 : feed.getCandidateCount());
+    }
+
+    /**
+     * Runs the crash recovery before the first scan of either direction.
+     */
+    private synchronized void recoverOnce() {
+        if (!recovered) {
+            recoverUnfinishedTransfers();
+            recovered = true;
         }
     }
 
+    /**
+     * @return Metrics of this mover
+     */
+    public TransferMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Publishes the metrics, the backlog and the oldest file waiting for a transfer are read from the current pool
+     * and quiescence detector.
+     */
+    private void registerMetrics() {
+        metrics.setBacklogSize(() -> {
+            TransferWorkerPool pool = workerPool;
+            return pool == null ? 0 : pool.getPendingCount();
+        });
+        metrics.setOldestPending(() -> {
+            WriteQuiescenceDetector current = quiescence;
+            return current == null ? 0 : current.oldestDetectedMillis();
+        });
+        MetricsRegistry.getDefault().register(metrics);
+    }
+
 
     /**
      * Scans the source directory and copies files to the destination directory and archives in the Archive directory.
+     * When the change feed of the direction is healthy only the files it queued are looked at,
+     * otherwise the whole tree is walked in parallel.
      *
      * @param fromBank If true, the files are copied from the bank directory to the SBO directory.
+     * @param batch    Batch of the current cycle the copies are queued into
      */
-    void scanAndCopyFiles(boolean fromBank) {
+    void scanAndCopyFiles(boolean fromBank, TransferWorkerPool.Batch batch) {
         Path sourceDir = fromBank ? this.bankDir : this.sboDir;
         Path destinationDir = fromBank ? this.sboDir : this.bankDir;
 
@@ -149,99 +577,184 @@ public class BankMessageMover implements MessageMover {
             return;
         }
 
-        try {
-            Files.walkFileTree(sourceDir, EnumSet.noneOf(FileVisitOption.class), Integer.MAX_VALUE, new SimpleFileVisitor<>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-                    if (dir.getFileName() == null) {
-                        return FileVisitResult.CONTINUE;
-                    }
-                    String dirName = dir.getFileName().toString();
-                    if (dirName.matches("^\\d{4}$")) {
-                        return FileVisitResult.SKIP_SUBTREE;
-                    }
-                    //check if not from bank the folder should be or msgArch or batch
-                    if (!fromBank) {
-                        Path relativePath = sboDir.relativize(dir);
-                        if (relativePath.toString().isEmpty()) {
-                            return FileVisitResult.CONTINUE;
-                        }
-
-                        if (relativePath.startsWith(BATCH_FOLDER + FILE_SEPARATOR + FROM_ODB_FOLDER) &&
-                                (!relativePath.startsWith(BATCH_FOLDER) || !relativePath.startsWith(MSG_ARCH_FOLDER))) {
-                            return FileVisitResult.SKIP_SUBTREE;
-                        }
-
-                    }
-                    return FileVisitResult.CONTINUE;
+        FileChangeFeed feed = fromBank ? bankFeed : sboFeed;
+        if (feed != null && !feed.isFullScanDue()) {
+            for (Path file : feed.drainCandidates()) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Unable to read file attributes: " + file, e);
+                    continue;
                 }
-
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws FileAlreadyExistsException {
-                    Path filePath = sourceDir.relativize(file);
-                    String fileName = filePath.toString();
-                    String fileExtension = fileName.substring(fileName.lastIndexOf(".") + 1);
-
-                    if (!ALLOWED_FILE_EXTENSIONS.contains(fileExtension)) {
-                        return FileVisitResult.CONTINUE;
+                if (!attrs.isRegularFile()) {
+                    continue;
+                }
+                try {
+                    if (!processFile(sourceDir, file, attrs, fromBank, batch)) {
+                        feed.requeue(file);
                     }
+                } catch (IOException e) {
+                    // The rest of the drained files are not queued anywhere else, keep going and retry this one
+                    logger.log(Level.SEVERE, "Error during file scanning and copying: " + file, e);
+                    feed.requeue(file);
+                }
+            }
+            return;
+        }
 
-                    // Define the batch directory structure based on the file path
-                    String bankDestinationDir = "";
-                    Set<String> fileNames = Set.of(fileName.split("\\\\"));
-                    if (fromBank) {
-                        Set<String> scannFolders = new HashSet<>(BANK_FOLDERS);
-                        Set<String> fileStructure = new HashSet<>(fileNames);
+        if (feed != null) {
+            feed.beginFullScan();
+        }
+        try {
+            walker.walk(sourceDir, dir -> isScannedDirectory(dir, fromBank), (file, attrs) -> {
+                // The walk cleared the feed, a file still being written has to be looked at again on the next cycle
+                if (!processFile(sourceDir, file, attrs, fromBank, batch) && feed != null) {
+                    feed.requeue(file);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error during file scanning and copying.", e);
+        }
+    }
 
-                        Set<String> commanNames = new HashSet<>(scannFolders);
-                        commanNames.retainAll(fileStructure);
-                        if (commanNames.isEmpty()) {
-                            return FileVisitResult.CONTINUE;
-                        }
-                        bankDestinationDir = commanNames.stream().findFirst().get();
+    /**
+     * Checks if a directory below the source directory has to be scanned.
+     * Year folders are never scanned, on the SB side the batch/FromODB folder is skipped as well.
+     *
+     * @param dir      Directory to check
+     * @param fromBank If true, the directory belongs to the bank directory.
+     * @return False if the whole subtree has to be skipped
+     */
+    public boolean isScannedDirectory(Path dir, boolean fromBank) {
+        return routingRules.isScannedDirectory(fromBank ? bankDir : sboDir, dir, fromBank);
+    }
 
-                    }
+    /**
+     * Routes a single file of the source directory and queues its copy when its writer is done with it.
+     *
+     * @param sourceDir Source directory the file was found in
+     * @param file      File to route
+     * @param attrs     Attributes of the file
+     * @param fromBank  If true, the files are copied from the bank directory to the SBO directory.
+     * @param batch     Batch the copy is queued into
+     * @return False if the file is not complete yet and has to be looked at again
+     */
+    private boolean processFile(Path sourceDir, Path file, BasicFileAttributes attrs, boolean fromBank,
+                                TransferWorkerPool.Batch batch) throws IOException {
+        if (PartialFiles.isPartial(file.getFileName().toString())) {
+            // Unfinished copy, continued by the next attempt unless it was abandoned
+            if (PartialFiles.deleteIfStale(file, attrs)) {
+                logger.log(Level.INFO, "Removed abandoned partial file: {0}", file);
+            }
+            return true;
+        }
+        Path destinationFile = route(sourceDir, file, fromBank);
+        if (destinationFile == null) {
+            return true;
+        }
 
-                    if (!fromBank) {
-                        Set<String> scannFolders = new HashSet<>(BANK_FOLDERS);
-                        Set<String> fileStructure = new HashSet<>(fileNames);
+        if (!quiescence.isComplete(sourceDir, file, attrs)) {
+            return false;
+        }
 
-                        Set<String> commanNames = new HashSet<>(scannFolders);
-                        commanNames.retainAll(fileStructure);
-                        if (!commanNames.isEmpty()) {
-                            return FileVisitResult.CONTINUE;
-                        }
-                    }
+        Path archiveCopy = fromBank ? archiveCopy(sourceDir, file, destinationFile) : null;
+        submitCopy(batch, sourceDir, file, destinationFile, archiveCopy, Direction.of(fromBank), attrs.size());
+        return true;
+    }
 
-                    long lastModifiedMillis = attrs.lastModifiedTime().toMillis();
-                    long currentTimeMillis = System.currentTimeMillis();
-                    Path destinationBatchDir = fromBank ? sboDir.resolve(BATCH_FOLDER + FILE_SEPARATOR + bankDestinationDir) : bankDir;
+    /**
+     * @param sourceDir       Bank directory the file was found in
+     * @param file            Bank file
+     * @param destinationFile Destination of the file on the SB side
+     * @return Archive path of the copy kept of the file or null if its folder is not archived
+     */
+    private Path archiveCopy(Path sourceDir, Path file, Path destinationFile) {
+        if (archiveCopyFolders.isEmpty() || archivationDir == null) {
+            return null;
+        }
+        String folder = routingRules.classify(sourceDir, file, true).getFolder();
+        if (folder == null || !archiveCopyFolders.contains(folder)) {
+            return null;
+        }
+        // Same layout as below the batch folder, e.g. FromODB/sub/file.xml
+        String fileName = sboDir.resolve(BATCH_FOLDER).relativize(destinationFile).toString();
+        MessageArchive writer = archiveWriter;
+        return writer != null ? writer.stagingPath(fileName) : archivationDir.resolve(dateFormattedPath()).resolve(fileName);
+    }
 
+    /**
+     * Decides where a file of the source directory has to be copied to.
+     * Only files with an allowed extension are routed. Bank files have to be in one of the bank folders,
+     * SB files must not be in one. SB files below msgArch go to the archive folder of the day.
+     *
+     * @param sourceDir Source directory the file was found in
+     * @param file      File to route
+     * @param fromBank  If true, the file belongs to the bank directory.
+     * @return Destination file or null if the file is not transferred
+     */
+    public Path route(Path sourceDir, Path file, boolean fromBank) {
+        Route route = routingRules.classify(sourceDir, file, fromBank);
+        if (route.isSkipped()) {
+            return null;
+        }
 
-                    if (currentTimeMillis - lastModifiedMillis >= TWO_MINUTES) {
-                        int index = fileName.indexOf(FILE_SEPARATOR);
-                        fileName = index != -1 ? fileName.substring(index + 1) : fileName;
-                        if (fileName.contains(FROM_ODB_FOLDER + FILE_SEPARATOR)) {
-                            fileName = fileName.replace(FROM_ODB_FOLDER + FILE_SEPARATOR, "");
-                        }
+        String fileName = sourceDir.relativize(file).toString();
+        int index = fileName.indexOf(FILE_SEPARATOR);
+        fileName = index != -1 ? fileName.substring(index + 1) : fileName;
+        if (fileName.contains(FROM_ODB_FOLDER + FILE_SEPARATOR)) {
+            fileName = fileName.replace(FROM_ODB_FOLDER + FILE_SEPARATOR, "");
+        }
 
-                        Path destinationFile = destinationBatchDir.resolve(fileName);
+        // Handle the SSBSync directory and folder structure
+        if (route.getKind() == Route.Kind.ARCHIVE) {
+            MessageArchive writer = archiveWriter;
+            if (writer != null) {
+                return writer.stagingPath(fileName);
+            }
+            Path finalArchivationDir = archivationDir.resolve(dateFormattedPath());
+            return finalArchivationDir.resolve(fileName);
+        }
+        Path destinationBatchDir = fromBank ? sboDir.resolve(BATCH_FOLDER).resolve(route.getFolder()) : bankDir;
+        return destinationBatchDir.resolve(fileName);
+    }
 
-                        // Handle the SSBSync directory and folder structure
-                        if (!fromBank && filePath.startsWith(MSG_ARCH_FOLDER)) {
-                            Path finalArchivationDir = archivationDir.resolve(dateFormattedPath());
-                            Path archiveFile = finalArchivationDir.resolve(fileName);
-                            copyFile(file, archiveFile);
-                        } else {
-                            copyFile(file, destinationFile);
-                        }
+    /**
+     * Queues a copy into the worker pool, blocking while the pool is at capacity or the destination directory
+     * is at its limit.
+     *
+     * @param batch           Batch of the current cycle
+     * @param sourceDir       Source directory the file was found in
+     * @param sourceFile      Source file
+     * @param destinationFile Destination file
+     * @param archiveCopy     Archive path of a copy kept of the file, null for none
+     * @param direction       Direction the metrics are recorded for
+     * @param size            Size of the source file
+     */
+    private void submitCopy(TransferWorkerPool.Batch batch, Path sourceDir, Path sourceFile, Path destinationFile,
+                            Path archiveCopy, Direction direction, long size) throws InterruptedIOException {
+        try {
+            batch.submit(destinationFile.getParent().toString(), () -> {
+                boolean moved = false;
+                try {
+                    moved = copyFile(sourceFile, destinationFile, archiveCopy);
+                    return moved;
+                } finally {
+                    if (moved) {
+                        quiescence.transferred(sourceDir, sourceFile);
+                        metrics.recordMoved(direction, size);
+                    } else {
+                        metrics.recordFailure(direction);
                     }
-
-                    return FileVisitResult.CONTINUE;
                 }
             });
-        } catch (IOException e) {
-            logger.log(Level.SEVERE, "Error during file scanning and copying.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing file: " + sourceFile);
         }
     }
 
@@ -253,16 +766,47 @@ public class BankMessageMover implements MessageMover {
 
     /**
      * Copies a file from the source directory to the destination directory.
-     * Checks if the copy was successful by comparing the hashes of the source and destination files.
+     * The source is hashed while it is copied into a hidden partial file, which is verified against that hash
+     * and only then renamed to the destination, so readers of the destination directory never see a partial copy.
+     * A partial file left by an interrupted copy is continued and then read back as a whole.
      * If the file is successfully copied and the isArchivation parameter is true, the file is deleted from the source directory.
      * If the file is not successfully copied, it is not deleted from the source directory.
+     * Every step is recorded in the transfer journal, so a copy interrupted by a crash is finished instead of reported as duplicate.
      *
      * @param sourceFile      Source file
      * @param destinationFile Destination file
+     * @return True if the file was moved
      */
-    void copyFile(Path sourceFile, Path destinationFile) throws FileAlreadyExistsException {
+    boolean copyFile(Path sourceFile, Path destinationFile) throws FileAlreadyExistsException {
+        return copyFile(sourceFile, destinationFile, null);
+    }
+
+    /**
+     * Copies a file like {@link #copyFile(Path, Path)}, keeping a second copy in the archive if requested.
+     * The source is read once for both copies, each copy is verified on its own and the source is only deleted
+     * when both are published. If either copy does not match, both are discarded.
+     *
+     * @param sourceFile      Source file
+     * @param destinationFile Destination file
+     * @param archiveCopy     Archive path of the second copy, null for none
+     * @return True if the file was moved
+     */
+    boolean copyFile(Path sourceFile, Path destinationFile, Path archiveCopy) throws FileAlreadyExistsException {
         if (Files.exists(destinationFile)) {
-            Platform.runLater(() -> AlertUtils.displayError(stage, "File already exists", "File already exists: " + destinationFile));
+            JournalEntry entry = journal == null ? null : journal.get(sourceFile.toString());
+            if (entry != null && entry.getDestination().equals(destinationFile.toString())) {
+                try {
+                    recoverTransfer(entry);
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to recover transfer: " + sourceFile, e);
+                }
+                if (Files.exists(sourceFile)) {
+                    return false;
+                }
+                handOverToArchive(destinationFile, null);
+                return true;
+            }
+            errorNotifier.notifyError("File already exists", "File already exists: " + destinationFile);
             throw new FileAlreadyExistsException("File already exists: " + destinationFile);
 
         }
@@ -273,27 +817,118 @@ public class BankMessageMover implements MessageMover {
                     Files.createDirectories(destinationFile.getParent());
                 } catch (IOException e) {
                     logger.log(Level.WARNING, "Failed to create parent directories: " + destinationFile.getParent(), e);
-                    return;  // Exit the method if directories creation fails
+                    return false;  // Exit the method if directories creation fails
                 }
             }
-            Files.copy(sourceFile, destinationFile, StandardCopyOption.REPLACE_EXISTING);
+            journal(TransferState.DETECTED, sourceFile, destinationFile);
+            String partialPath = PartialFiles.partialPath(destinationFile).toString();
+            String archivePartialPath = archiveCopy == null ? null : PartialFiles.partialPath(archiveCopy).toString();
+            byte[] digest = archiveCopy == null
+                    ? copyVerified(sourceFile, partialPath)
+                    : fanOutVerified(sourceFile, partialPath, archivePartialPath);
+            journal(TransferState.COPIED, sourceFile, destinationFile);
             //stop process if file already exists
 
-            if (compareFileHashes(sourceFile, destinationFile)) {
+            if (digest != null) {
+                try {
+                    localFiles.publish(partialPath, destinationFile.toString());
+                } catch (IOException e) {
+                    // Not delivered, so not archived either, both are written again by the next attempt
+                    if (archiveCopy != null) {
+                        localFiles.delete(archivePartialPath);
+                    }
+                    throw e;
+                }
+                journal(TransferState.VERIFIED, sourceFile, destinationFile);
+                boolean archived = archiveCopy == null || publishArchiveCopy(archivePartialPath, archiveCopy);
                 Files.delete(sourceFile);
-                logger.log(Level.INFO, "Successfully copied file: " + sourceFile + " to " + destinationFile);
+                journal(TransferState.SOURCE_DELETED, sourceFile, destinationFile);
+                logger.log(Level.INFO, "Successfully copied file: {0} to {1}", new Object[]{sourceFile, destinationFile});
+                handOverToArchive(destinationFile, digest);
+                if (archived) {
+                    handOverToArchive(archiveCopy, digest);
+                }
+                return true;
             } else {
-                Files.delete(destinationFile);
+                localFiles.delete(partialPath);
+                if (archiveCopy != null) {
+                    localFiles.delete(archivePartialPath);
+                }
+                journal(TransferState.DISCARDED, sourceFile, destinationFile);
                 logger.log(Level.WARNING, "Hash doesn't match. Will scan again!");
             }
 
         } catch (IOException e) {
             logger.log(Level.WARNING, "Failed to copy file: " + sourceFile, e);
         }
+        return false;
+    }
+
+    /**
+     * Publishes the archive copy of a delivered file. The file is not copied again if this fails,
+     * that would deliver it twice.
+     *
+     * @param archivePartialPath Partial file of the archive copy
+     * @param archiveCopy        Archive path of the copy
+     * @return True if the copy was published
+     */
+    private boolean publishArchiveCopy(String archivePartialPath, Path archiveCopy) {
+        try {
+            localFiles.publish(archivePartialPath, archiveCopy.toString());
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Unable to publish archive copy: " + archiveCopy, e);
+            return false;
+        }
+    }
+
+    /**
+     * Hands a copy staged for the archive over to it, copies elsewhere are left alone.
+     *
+     * @param file   Published copy, may be null
+     * @param digest Digest of the copy, null if it is not known
+     */
+    private void handOverToArchive(Path file, byte[] digest) {
+        MessageArchive writer = archiveWriter;
+        if (writer != null && file != null && file.startsWith(writer.getStagingDir())) {
+            writer.archive(file, digest);
+        }
     }
 
     /**
-     * Compares the hashes of two files.
+     * Copies a file into the partial file of its destination and verifies it.
+     *
+     * @return Digest of the source if the partial file matches it, null otherwise
+     */
+    private byte[] copyVerified(Path sourceFile, String partialPath) throws IOException {
+        CopyResult result = pipeline.copy(localFiles, sourceFile.toString(), localFiles, partialPath);
+        if (result.getResumedFrom() > 0) {
+            logger.log(Level.INFO, "Resumed copy of {0} at byte {1}", new Object[]{sourceFile, result.getResumedFrom()});
+        }
+        boolean verified = result.isVerified()
+                && (!readBack && result.getResumedFrom() == 0 || pipeline.matches(localFiles, partialPath, result));
+        metrics.recordHash(result.getVerificationNanos());
+        return verified ? result.getDigest() : null;
+    }
+
+    /**
+     * Copies a file into the partial files of its destination and of its archive copy from one read, verifying each.
+     *
+     * @return Digest of the source if both partial files match it, null otherwise
+     */
+    private byte[] fanOutVerified(Path sourceFile, String partialPath, String archivePartialPath) throws IOException {
+        List<CopyResult> results = pipeline.fanOut(localFiles, sourceFile.toString(),
+                List.of(new TransferSink(localFiles, partialPath), new TransferSink(localFiles, archivePartialPath)));
+        boolean verified = results.get(0).isVerified()
+                && results.get(1).isVerified()
+                && (!readBack || pipeline.matches(localFiles, partialPath, results.get(0))
+                && pipeline.matches(localFiles, archivePartialPath, results.get(1)));
+        metrics.recordHash(results.get(0).getVerificationNanos() + results.get(1).getVerificationNanos());
+        return verified ? results.get(0).getDigest() : null;
+    }
+
+    /**
+     * Compares the hashes of two files. Both files are streamed through the copy buffer instead of loaded into memory.
      *
      * @param file1
      * @param file2
@@ -302,11 +937,10 @@ public class BankMessageMover implements MessageMover {
 
     boolean compareFileHashes(Path file1, Path file2) {
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash1 = md.digest(Files.readAllBytes(file1));
-            byte[] hash2 = md.digest(Files.readAllBytes(file2));
+            byte[] hash1 = pipeline.digest(localFiles, file1.toString());
+            byte[] hash2 = pipeline.digest(localFiles, file2.toString());
             return MessageDigest.isEqual(hash1, hash2);
-        } catch (NoSuchAlgorithmException | IOException e) {
+        } catch (IOException e) {
             logger.log(Level.WARNING, "Failed to compare file hashes: " + file1 + ", " + file2, e);
             return false;
         }
@@ -314,5 +948,6 @@ public class BankMessageMover implements MessageMover {
 
     public void setBankFolders(List<String> bankFolders) {
         BANK_FOLDERS.addAll(bankFolders);
+        routingRules = RoutingRules.compile(BANK_FOLDERS, ALLOWED_FILE_EXTENSIONS);
     }
 }
@@ -1,54 +1,120 @@
 package com.itg.messagemover;
 
 import com.itg.FileHashComparator;
+import com.itg.ErrorNotifier;
+import com.itg.FileTransferService;
+import com.itg.LocalFileTransferService;
+import com.itg.archive.DailyArchiveWriter;
+import com.itg.archive.DeduplicatingArchive;
+import com.itg.archive.MessageArchive;
 import com.itg.LoggerConfiguration;
+import com.itg.journal.JournalEntry;
+import com.itg.journal.TransferJournal;
+import com.itg.journal.TransferState;
+import com.itg.metrics.Direction;
+import com.itg.metrics.MetricsRegistry;
+import com.itg.metrics.TransferMetrics;
+import com.itg.routing.Route;
+import com.itg.routing.RoutingRules;
+import com.itg.scan.AdaptiveScanScheduler;
+import com.itg.scan.FileChangeFeed;
+import com.itg.scan.ParallelTreeWalker;
+import com.itg.scan.ScanCadence;
+import com.itg.scan.WriteQuiescenceDetector;
+import com.itg.transfer.BatchResult;
+import com.itg.transfer.TransferWorkerPool;
+import com.itg.sftp.RemoteFileVerifier;
 import com.itg.sftp.SFTPConfig;
-import com.itg.sftp.SFTPConnector;
+import com.itg.sftp.SFTPFileTransferService;
+import com.itg.sftp.SFTPSessionPool;
+import com.itg.sftp.SFTPTransferMode;
+import com.itg.transfer.CopyResult;
+import com.itg.transfer.ExecutionMode;
+import com.itg.transfer.FileEntry;
+import com.itg.transfer.FileListing;
+import com.itg.transfer.PartialFiles;
+import com.itg.transfer.TransferPipeline;
+import com.itg.transfer.TransferSink;
 import com.jcraft.jsch.JSchException;
-import com.jcraft.jsch.SftpException;
-import javafx.stage.Stage;
-import lombok.SneakyThrows;
-import net.schmizz.sshj.sftp.RemoteResourceInfo;
-import net.schmizz.sshj.sftp.Response;
 import net.schmizz.sshj.sftp.SFTPClient;
-import net.schmizz.sshj.sftp.SFTPException;
 
 import java.io.*;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class BankMessageSFTPMover implements MessageMover {
-    private Stage stage;
+    private final ErrorNotifier errorNotifier;
 
     static Logger logger = Logger.getLogger("BankMessageMover");
 
     private static final Set<String> ALLOWED_FILE_EXTENSIONS = Set.of("xml", "rje", "prt", "DOS", "csv");
 
     private static final Set<String> BANK_FOLDERS = new HashSet<>(Arrays.asList("FromODB"));
-    private static final String FROM_ODB_FOLDER = "FromODB";
-    private static final String BATCH_FOLDER = "batch";
     private static final String MSG_ARCH_FOLDER = "msgArch";
+    private RoutingRules routingRules = RoutingRules.compile(BANK_FOLDERS, ALLOWED_FILE_EXTENSIONS);
     private long SCAN_INTERVAL_SECONDS;
-    private static final long TWO_MINUTES = 2 * 60 * 1000;
+    private long minScanIntervalSeconds = DEFAULT_MIN_SCAN_INTERVAL_SECONDS;
+    private long maxScanIntervalSeconds;
+    private static final long DEFAULT_MIN_SCAN_INTERVAL_SECONDS = 5;
+    private static final int DEFAULT_MAX_SCAN_INTERVAL_FACTOR = 8;
+    private static final long UNSEEN_FILE_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long PARTIAL_SWEEP_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long DEFAULT_RECONCILIATION_MINUTES = 30;
+    private static final int DEFAULT_TRANSFER_WORKERS = 4;
+    private static final int DEFAULT_PER_DESTINATION_LIMIT = 2;
+    private static final int TRANSFER_QUEUE_CAPACITY = 256;
+    private static final int LISTING_BATCH_SIZE = 128;
+    private static final int VERIFICATION_THREADS = 2;
     private volatile boolean stopProcessing = false;
-    private SFTPConnector sftpConnector = new SFTPConnector();
+    private SFTPSessionPool sessionPool;
+    private final FileTransferService localFiles = new LocalFileTransferService();
+    private SFTPFileTransferService remoteFiles;
+    private final TransferPipeline pipeline = new TransferPipeline();
+    private RemoteFileVerifier verifier;
+    private ExecutorService verificationExecutor;
+    private final TransferMetrics metrics = new TransferMetrics("sftp");
+    private WriteQuiescenceDetector quiescence;
+    private long quiescenceMillis = WriteQuiescenceDetector.DEFAULT_QUIESCENCE_MILLIS;
+    private boolean lockProbe;
+    private final Map<String, String> markerSuffixes = new HashMap<>();
+    private final Set<String> archiveCopyFolders = new HashSet<>();
+    // Remote files stay on the server, a file is downloaded again only once its size or modification time changed
+    private final Map<String, FileEntry> downloaded = new ConcurrentHashMap<>();
 
-    private ScheduledExecutorService scheduler;
+    private AdaptiveScanScheduler scheduler;
 
-    private static final String FILE_SEPARATOR = FileSystems.getDefault().getSeparator();
+    private FileChangeFeed bankFeed;
+    private long reconciliationIntervalMinutes = DEFAULT_RECONCILIATION_MINUTES;
+
+    private Path journalFile;
+    private TransferJournal journal;
+    private boolean recovered;
+    private volatile long lastPartialSweepMillis;
+
+    private TransferWorkerPool workerPool;
+    private int transferWorkers = DEFAULT_TRANSFER_WORKERS;
+    private int perDestinationLimit = DEFAULT_PER_DESTINATION_LIMIT;
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+    private ParallelTreeWalker walker;
+    private int scanParallelism = ParallelTreeWalker.DEFAULT_PARALLELISM;
 
 
     private Path archivationDir;
+    private boolean archiveContainers;
+    private boolean archiveDeduplication;
+    private int archiveRetentionDays;
+    private MessageArchive archiveWriter;
     private Path bankDir;
 
     private String printerName;
@@ -62,16 +128,38 @@ public class BankMessageSFTPMover implements MessageMover {
     private SFTPConfig sftpConfig;
 
     public BankMessageSFTPMover() {
+        this(ErrorNotifier.LOGGING);
     }
 
-    public BankMessageSFTPMover(Stage stage) {
-        this.stage = stage;
+    /**
+     * @param errorNotifier Receives errors the user has to act on
+     */
+    public BankMessageSFTPMover(ErrorNotifier errorNotifier) {
+        this.errorNotifier = errorNotifier;
     }
 
     public void setScanInterval(long SCAN_INTERVAL_SECONDS) {
         this.SCAN_INTERVAL_SECONDS = SCAN_INTERVAL_SECONDS;
     }
 
+    /**
+     * Sets the shortest interval a direction is scanned at while files keep arriving.
+     *
+     * @param minScanIntervalSeconds Shortest scan interval in seconds
+     */
+    public void setMinScanInterval(long minScanIntervalSeconds) {
+        this.minScanIntervalSeconds = minScanIntervalSeconds;
+    }
+
+    /**
+     * Sets the longest interval an idle direction backs off to, 0 for eight times the scan interval.
+     *
+     * @param maxScanIntervalSeconds Longest scan interval in seconds
+     */
+    public void setMaxScanInterval(long maxScanIntervalSeconds) {
+        this.maxScanIntervalSeconds = maxScanIntervalSeconds;
+    }
+
     public void setArchivationDir(String archivationDir) {
         this.archivationDir = Paths.get(archivationDir);
     }
@@ -82,6 +170,7 @@ public class BankMessageSFTPMover implements MessageMover {
 
     public void setLoggingPath(String loggingPath) {
         configureLogger(loggingPath);
+        this.journalFile = Paths.get(loggingPath, "journal", "sftp-transfer.journal");
     }
 
     public void setPrinterName(String printerName) {
@@ -92,223 +181,895 @@ public class BankMessageSFTPMover implements MessageMover {
         this.sftpSboDir = dir;
     }
 
+    /**
+     * Sets the number of threads transferring files in parallel.
+     *
+     * @param transferWorkers Number of transfer workers
+     */
+    public void setTransferWorkers(int transferWorkers) {
+        this.transferWorkers = Math.max(1, transferWorkers);
+    }
+
+    /**
+     * Sets how many transfers may write to the same destination directory at once.
+     *
+     * @param perDestinationLimit Number of concurrent transfers per destination
+     */
+    public void setPerDestinationLimit(int perDestinationLimit) {
+        this.perDestinationLimit = Math.max(1, perDestinationLimit);
+    }
+
+    /**
+     * Sets how long a file has to stay unchanged before it is transferred.
+     *
+     * @param quiescenceMillis Time size and modification time have to stay unchanged
+     */
+    public void setQuiescencePeriod(long quiescenceMillis) {
+        this.quiescenceMillis = quiescenceMillis;
+    }
+
+    /**
+     * Sets whether a local file also has to accept an exclusive lock before it is uploaded.
+     *
+     * @param lockProbe If true, files still held open by their writer are not uploaded
+     */
+    public void setLockProbe(boolean lockProbe) {
+        this.lockProbe = lockProbe;
+    }
+
+    /**
+     * Makes the local files below a top-level folder wait for a marker file instead of the quiescence period.
+     *
+     * @param folder Folder directly below the bank directory
+     * @param suffix Suffix appended to the file name to form the marker name, e.g. {@code .done}
+     */
+    public void setMarkerSuffix(String folder, String suffix) {
+        markerSuffixes.put(folder, suffix);
+    }
+
+    /**
+     * Sets how many directories a full scan of the bank directory reads at the same time.
+     *
+     * @param scanParallelism Maximum number of directories listed in parallel
+     */
+    public void setScanParallelism(int scanParallelism) {
+        this.scanParallelism = Math.max(1, scanParallelism);
+    }
+
+    /**
+     * Sets the threads transfers run on.
+     * In virtual mode the number of open channels is still capped by the session pool.
+     *
+     * @param executionMode {@link ExecutionMode#VIRTUAL} for one virtual thread per transfer
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * Sets whether archived messages are packed into daily zip containers instead of kept as single files.
+     *
+     * @param archiveContainers If true, msgArch files are packed by a {@link DailyArchiveWriter}
+     */
+    public void setArchiveContainers(boolean archiveContainers) {
+        this.archiveContainers = archiveContainers;
+    }
+
+    /**
+     * Sets whether archived messages are stored once per distinct content, referenced from a daily index.
+     * Takes precedence over the containers.
+     *
+     * @param archiveDeduplication If true, msgArch files are stored by a {@link DeduplicatingArchive}
+     */
+    public void setArchiveDeduplication(boolean archiveDeduplication) {
+        this.archiveDeduplication = archiveDeduplication;
+    }
 
     /**
-     * Configures the logger to write to a log file in the specified directories.
-     * The log file name is based on the current date.
+     * Sets how long the deduplicating archive keeps a day.
+     *
+     * @param archiveRetentionDays Days after which the index of a day and the content only it references are deleted, 0 to keep everything
+     */
+    public void setArchiveRetentionDays(int archiveRetentionDays) {
+        this.archiveRetentionDays = archiveRetentionDays;
+    }
+
+    /**
+     * Keeps a copy of the bank files of a folder in the archive of the day, next to the uploaded one.
+     * Both copies are written from a single read of the file.
+     *
+     * @param folders Bank folders whose files are archived as well
+     */
+    public void setArchiveCopyFolders(List<String> folders) {
+        archiveCopyFolders.addAll(folders);
+    }
+
+    /**
+     * Sets how often the local tree is walked even though the change feed reported no overflow.
+     *
+     * @param reconciliationIntervalMinutes Minutes between two full walks
+     */
+    public void setReconciliationInterval(long reconciliationIntervalMinutes) {
+        this.reconciliationIntervalMinutes = reconciliationIntervalMinutes;
+    }
+
+
+    /**
+     * Configures the logger to write to a log file in the specified directory, rolled over daily.
+     * Configuring the logger again does not add another handler.
      */
     private void configureLogger(String loggingPath) {
-        FileHandler handler = LoggerConfiguration.configureLogger(loggingPath);
-        logger.addHandler(handler);
+        LoggerConfiguration.configureLogger(logger, loggingPath);
     }
 
     /*
      * Starts the file copying and scanning process.
-     * The process runs every 2 minutes.
-     * The process is started in a separate thread.
+     * Each direction is scanned on its own thread, more often while files arrive and less often while idle.
      */
     public void start() {
         logger.log(Level.INFO, "Application Started.");
-        scheduler = Executors.newScheduledThreadPool(2);
-        //scan interval configurable
-        scheduler.scheduleAtFixedRate(this::copyAndScanFiles, 0, SCAN_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        bankFeed = startChangeFeed(bankDir);
+        journal = openJournal();
+        recovered = false;
+        archiveWriter = startArchiveWriter();
+        quiescence = new WriteQuiescenceDetector(quiescenceMillis);
+        quiescence.setLockProbe(lockProbe);
+        markerSuffixes.forEach(quiescence::setMarkerSuffix);
+        sessionPool = new SFTPSessionPool(sftpConfig);
+        remoteFiles = new SFTPFileTransferService(sessionPool, sftpConfig.getTransferMode() == SFTPTransferMode.CLASSIC
+                ? SFTPFileTransferService.CLASSIC_MAX_OUTSTANDING_REQUESTS : sftpConfig.getMaxOutstandingRequests(),
+                sftpConfig.getChunkSize(), sftpConfig.getListingConcurrency());
+        verifier = new RemoteFileVerifier(sessionPool, sftpConfig.getVerificationStrategy());
+        verificationExecutor = startVerificationExecutor();
+        workerPool = new TransferWorkerPool(transferWorkers, TRANSFER_QUEUE_CAPACITY, perDestinationLimit, executionMode);
+        walker = new ParallelTreeWalker("sftp", scanParallelism);
+        registerMetrics();
+        ScanCadence cadence = ScanCadence.ofSeconds(minScanIntervalSeconds, SCAN_INTERVAL_SECONDS,
+                maxScanIntervalSeconds > 0 ? maxScanIntervalSeconds : SCAN_INTERVAL_SECONDS * DEFAULT_MAX_SCAN_INTERVAL_FACTOR);
+        scheduler = new AdaptiveScanScheduler("sftp", 2);
+        scheduler.schedule(Direction.BANK_TO_SB.getLabel(), cadence, () -> copyAndScanFiles(true));
+        scheduler.schedule(Direction.SB_TO_BANK.getLabel(), cadence, () -> copyAndScanFiles(false));
     }
 
-    @SneakyThrows
-    private void copyAndScanFiles() {
-        SFTPClient sftpClient;
+    /**
+     * Copies and scans the files of one direction, the cycle ends when every queued file was handled.
+     *
+     * @param fromBank If true, the files are uploaded from the bank directory to the SFTP SB directory.
+     * @return Number of files queued or still waiting to settle, 0 if the direction was idle
+     */
+    private int copyAndScanFiles(boolean fromBank) {
+        long cycleStart = System.nanoTime();
+        // Checks the session and reconnects if it was lost since the last cycle
         try {
-            sftpClient = sftpConnector.connect(sftpConfig).newSFTPClient();
+            sessionPool.execute(sftpClient -> {
+                recoverOnce(sftpClient);
+                return null;
+            });
+        } catch (InterruptedException | IOException e) {
+            logger.log(Level.SEVERE, "Error during file copying and scanning.", e);
+            return 0;
+        }
 
+        TransferWorkerPool.Batch batch = workerPool.newBatch();
+        scanAndCopyFiles(fromBank, batch);
+        BatchResult result = batch.await();
+        if (result.getTotal() > 0) {
+            logger.log(Level.INFO, "Scan cycle finished: " + result.getSucceeded() + " file(s) moved, " + result.getFailed() + " failed.");
+        }
+        metrics.recordCycle(cycleStart);
+        quiescence.pruneUnseen(UNSEEN_FILE_MILLIS);
 
-            CompletableFuture<Void> bankToSBOFuture = CompletableFuture.runAsync(() -> {
-                scanAndCopyFiles(true, sftpClient);
+        FileChangeFeed feed = bankFeed;
+        return (int) result.getTotal() + (fromBank && feed != null ? feed.getCandidateCount() : 0);
+    }
 
-            });
-            CompletableFuture<Void> sboToBankFuture = CompletableFuture.runAsync(() -> {
-                scanAndCopyFiles(false, sftpClient);
+    /**
+     * Runs the crash recovery before the first scan of either direction.
+     *
+     * @param sftpClient SFTP client
+     */
+    private synchronized void recoverOnce(SFTPClient sftpClient) {
+        if (!recovered) {
+            recoverUnfinishedTransfers(sftpClient);
+            recovered = true;
+        }
+    }
 
-            });
+    /**
+     * @return Metrics of this mover
+     */
+    public TransferMetrics getMetrics() {
+        return metrics;
+    }
 
-            CompletableFuture<Void> combinedFuture = CompletableFuture.allOf(bankToSBOFuture, sboToBankFuture);
-            combinedFuture.get();
-        } catch (InterruptedException | ExecutionException | IOException e) {
-            logger.log(Level.SEVERE, "Error during file copying and scanning.", e);
-        } finally {
-            sftpConnector.disconnect();
-        }
+    /**
+     * Publishes the metrics, the SFTP requests, the backlog and the oldest file waiting for a transfer are read from
+     * the current session pool, worker pool and quiescence detector.
+     */
+    private void registerMetrics() {
+        metrics.setSftpRequests(() -> {
+            SFTPSessionPool pool = sessionPool;
+            return pool == null ? 0 : pool.getRequestCount();
+        });
+        metrics.setBacklogSize(() -> {
+            TransferWorkerPool pool = workerPool;
+            return pool == null ? 0 : pool.getPendingCount();
+        });
+        metrics.setOldestPending(() -> {
+            WriteQuiescenceDetector current = quiescence;
+            return current == null ? 0 : current.oldestDetectedMillis();
+        });
+        MetricsRegistry.getDefault().register(metrics);
     }
 
     public void stop() {
+        MetricsRegistry.getDefault().unregister(metrics);
         if (scheduler != null) {
             scheduler.shutdown();
             scheduler = null;
             logger.log(Level.INFO, "Application stopped.");
         }
+        if (workerPool != null) {
+            workerPool.shutdown();
+            workerPool = null;
+        }
+        if (walker != null) {
+            walker.shutdown();
+            walker = null;
+        }
+        if (archiveWriter != null) {
+            archiveWriter.close();
+            archiveWriter = null;
+        }
+        if (verificationExecutor != null) {
+            verificationExecutor.shutdown();
+            try {
+                verificationExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            verificationExecutor = null;
+        }
+        if (remoteFiles != null) {
+            try {
+                remoteFiles.disconnect();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to close SFTP sessions.", e);
+            }
+            remoteFiles = null;
+            sessionPool = null;
+        }
+        if (bankFeed != null) {
+            try {
+                bankFeed.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to close change feed.", e);
+            }
+            bankFeed = null;
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to close transfer journal.", e);
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Starts the threads verifying uploads while the transfer workers move on to the next file.
+     *
+     * @return Started executor
+     */
+    private ExecutorService startVerificationExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(VERIFICATION_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "upload-verifier-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts the deduplicating archive or the daily containers when one of them is enabled.
+     * If the archive directory cannot be prepared, messages are archived as single files.
+     *
+     * @return Started archive or null
+     */
+    private MessageArchive startArchiveWriter() {
+        if (!archiveDeduplication && !archiveContainers || archivationDir == null) {
+            return null;
+        }
+        MessageArchive writer;
+        if (archiveDeduplication) {
+            DeduplicatingArchive deduplicating = new DeduplicatingArchive(archivationDir);
+            deduplicating.setRetentionDays(archiveRetentionDays);
+            writer = deduplicating;
+        } else {
+            writer = new DailyArchiveWriter(archivationDir);
+        }
+        try {
+            writer.start();
+            return writer;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to start the archive in " + archivationDir + ", archiving single files.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Opens the transfer journal next to the log files.
+     * If the journal cannot be opened, files are moved without crash recovery.
+     *
+     * @return Opened journal or null
+     */
+    private TransferJournal openJournal() {
+        if (journalFile == null) {
+            return null;
+        }
+        try {
+            return TransferJournal.open(journalFile);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to open transfer journal " + journalFile + ", crash recovery is disabled.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Finishes the uploads the journal reports as unfinished, e.g. after a crash.
+     * Only these files are verified again, everything else is left to the regular scan.
+     *
+     * @param sftpClient SFTP client
+     */
+    private void recoverUnfinishedTransfers(SFTPClient sftpClient) {
+        if (journal == null) {
+            return;
+        }
+        List<JournalEntry> entries = journal.unfinishedEntries();
+        if (!entries.isEmpty()) {
+            logger.log(Level.INFO, "Recovering " + entries.size() + " unfinished transfer(s).");
+        }
+        for (JournalEntry entry : entries) {
+            try {
+                recoverUpload(entry, sftpClient);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to recover transfer: " + entry.getSource(), e);
+            }
+        }
+    }
+
+    /**
+     * Continues a journaled upload from its last recorded state.
+     *
+     * @param entry      Unfinished journal entry
+     * @param sftpClient SFTP client
+     */
+    private void recoverUpload(JournalEntry entry, SFTPClient sftpClient) throws IOException {
+        Path file = Paths.get(entry.getSource());
+        String remoteFilePath = entry.getDestination();
+        boolean remoteExists = sftpClient.statExistence(remoteFilePath) != null;
+
+        if (!remoteExists) {
+            // Nothing usable was uploaded, the next scan uploads the file again
+            journal(TransferState.DISCARDED, file, remoteFilePath);
+            return;
+        }
+        if (!Files.exists(file)) {
+            // The local file is only deleted after verification
+            journal(TransferState.SOURCE_DELETED, file, remoteFilePath);
+            return;
+        }
+
+        if (entry.getState() != TransferState.VERIFIED) {
+            if (!FileHashComparator.compareFileHashes(file, remoteFilePath, sftpClient)) {
+                sftpClient.rm(remoteFilePath);
+                journal(TransferState.DISCARDED, file, remoteFilePath);
+                logger.log(Level.WARNING, "Discarded incomplete upload: " + remoteFilePath);
+                return;
+            }
+            journal(TransferState.VERIFIED, file, remoteFilePath);
+        }
+        Files.delete(file);
+        journal(TransferState.SOURCE_DELETED, file, remoteFilePath);
+        logger.log(Level.INFO, "Recovered transfer: " + file + " to " + remoteFilePath);
     }
 
-    private void scanAndCopyFiles(boolean fromBank, SFTPClient sftpClient) {
+    /**
+     * Records a state change in the transfer journal.
+     * The detection is forced to disk before the remote file gets written.
+     */
+    private void journal(TransferState state, Path file, String remoteFilePath) throws IOException {
+        if (journal == null) {
+            return;
+        }
+        long sequence = journal.record(state, file.toString(), remoteFilePath);
+        if (state == TransferState.DETECTED) {
+            journal.awaitDurable(sequence);
+        }
+    }
+
+    /**
+     * Starts a change feed for the local bank directory.
+     * If the directory cannot be watched, null is returned and every scan walks the whole tree.
+     *
+     * @param sourceDir Local bank directory
+     * @return Started change feed or null
+     */
+    private FileChangeFeed startChangeFeed(Path sourceDir) {
+        if (sourceDir == null || !Files.isDirectory(sourceDir)) {
+            return null;
+        }
+        try {
+            FileChangeFeed feed = new FileChangeFeed(sourceDir, this::isScannedDirectory,
+                    TimeUnit.MINUTES.toMillis(reconciliationIntervalMinutes));
+            feed.start();
+            return feed;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to watch " + sourceDir + ", falling back to full scans.", e);
+            return null;
+        }
+    }
+
+    private void scanAndCopyFiles(boolean fromBank, TransferWorkerPool.Batch batch) {
 
         try {
             if (fromBank) {
                 // Local to SFTP
-                transferLocalToSftp(bankDir, sftpSboDir, sftpClient);
+                transferLocalToSftp(bankDir, sftpSboDir, batch);
             } else {
                 // SFTP to Local
-                transferSftpToLocal(sftpClient, sftpSboDir, bankDir);
+                transferSftpToLocal(sftpSboDir, bankDir, batch);
+                sweepPartialsIfDue();
             }
-        } catch (IOException | JSchException | SftpException e) {
+        } catch (IOException | JSchException e) {
             logger.log(Level.SEVERE, "Error during file scanning and copying.", e);
         }
     }
 
-    public void transferLocalToSftp(Path localDir, String remoteDir, SFTPClient sftpClient) throws IOException, JSchException {
+    /**
+     * Removes partial files of transfers that were abandoned, e.g. because the source disappeared before the retry.
+     * Runs at most once per sweep interval, partial files younger than the retention are left for the retry.
+     */
+    private void sweepPartialsIfDue() throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - lastPartialSweepMillis < PARTIAL_SWEEP_INTERVAL_MILLIS) {
+            return;
+        }
+        lastPartialSweepMillis = now;
+        int removed = 0;
+        try (FileListing listing = remoteFiles.list(sftpSboDir, dir -> true, LISTING_BATCH_SIZE)) {
+            for (List<FileEntry> entries = listing.nextBatch(); !entries.isEmpty(); entries = listing.nextBatch()) {
+                for (FileEntry entry : entries) {
+                    if (PartialFiles.isPartial(entry.getName())
+                            && now - entry.getModifiedMillis() >= PartialFiles.RETENTION_MILLIS
+                            && remoteFiles.delete(entry.getPath())) {
+                        removed++;
+                    }
+                }
+            }
+        }
+        MessageArchive writer = archiveWriter;
+        if (writer != null) {
+            removed += PartialFiles.deleteStale(writer.getStagingDir(), PartialFiles.RETENTION_MILLIS);
+        }
+        if (removed > 0) {
+            logger.log(Level.INFO, "Removed " + removed + " abandoned partial file(s).");
+        }
+    }
 
-        Files.walkFileTree(localDir, EnumSet.noneOf(FileVisitOption.class), Integer.MAX_VALUE, new SimpleFileVisitor<>() {
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-                if (dir.getFileName() == null) {
-                    return FileVisitResult.CONTINUE;
+    public void transferLocalToSftp(Path localDir, String remoteDir, TransferWorkerPool.Batch batch) throws IOException, JSchException {
+        if (bankFeed != null && !bankFeed.isFullScanDue()) {
+            for (Path file : bankFeed.drainCandidates()) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Unable to read file attributes: " + file, e);
+                    continue;
+                }
+                if (!attrs.isRegularFile()) {
+                    continue;
                 }
-                String dirName = dir.getFileName().toString();
-                if (dirName.matches("^\\d{4}$")) {
-                    return FileVisitResult.SKIP_SUBTREE;
+                try {
+                    if (!uploadFile(localDir, remoteDir, file, attrs, batch)) {
+                        bankFeed.requeue(file);
+                    }
+                } catch (IOException e) {
+                    // The rest of the drained files are not queued anywhere else, keep going and retry this one
+                    logger.log(Level.SEVERE, "Unable to queue the upload of " + file, e);
+                    bankFeed.requeue(file);
                 }
-                return FileVisitResult.CONTINUE;
             }
+            return;
+        }
 
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                Path filePath = localDir.relativize(file);
-                String fileName = filePath.toString();
-                String fileExtension = getFileExtension(fileName);
-                Set<String> fileNames = Set.of(fileName.split("\\\\"));
-
-                if (shouldTransferFile(attrs) && ALLOWED_FILE_EXTENSIONS.contains(fileExtension)) {
-
-                    Set<String> scannFolders = new HashSet<>(BANK_FOLDERS);
-                    Set<String> fileStructure = new HashSet<>(fileNames);
+        if (bankFeed != null) {
+            bankFeed.beginFullScan();
+        }
+        try {
+            walker.walk(localDir, this::isScannedDirectory, (file, attrs) -> {
+                // The walk cleared the feed, a file still being written has to be looked at again on the next cycle
+                if (!uploadFile(localDir, remoteDir, file, attrs, batch) && bankFeed != null) {
+                    bankFeed.requeue(file);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-                    Set<String> commanNames = new HashSet<>(scannFolders);
-                    commanNames.retainAll(fileStructure);
-                    if (commanNames.isEmpty()) {
-                        return FileVisitResult.CONTINUE;
-                    }
+    private boolean isScannedDirectory(Path dir) {
+        return !routingRules.isYearFolder(dir);
+    }
 
-                    String remoteFilePath = remoteDir + "/" + localDir.relativize(file).toString().replace("\\", "/");
-                    try {
-                        ensureDirectoryExists(sftpClient, remoteFilePath);
-                        sftpClient.put(file.normalize().toString(), remoteFilePath);
-                        logger.log(Level.INFO, "File uploaded successfully: " + file);
-                    } catch (Exception e) {
-                        logger.log(Level.WARNING, "Failed to upload file: " + file, e);
-                    }
-                    if (FileHashComparator.compareFileHashes(localDir, remoteFilePath, sftpClient)) {
-                        Files.delete(file);
-                        logger.log(Level.INFO, "Successfully copied file: " + localDir + " to " + remoteFilePath);
-                    } else {
-                        try {
-                            sftpClient.rm(remoteFilePath);
-                        } catch (IOException e) {
-                            logger.log(Level.WARNING, "Unable to delete file from sftp!");
-                        }
-                        logger.log(Level.WARNING, "Hash doesn't match. Will scan again!");
-                    }
-                }
-                return FileVisitResult.CONTINUE;
+    /**
+     * Queues the upload of a single local file when it is in one of the bank folders and its writer is done with it.
+     *
+     * @param localDir   Local bank directory
+     * @param remoteDir  Remote SB directory
+     * @param file       File to upload
+     * @param attrs      Attributes of the file
+     * @param batch      Batch the upload is queued into
+     * @return False if the file is not old enough yet and has to be looked at again
+     */
+    private boolean uploadFile(Path localDir, String remoteDir, Path file, BasicFileAttributes attrs,
+                               TransferWorkerPool.Batch batch) throws IOException {
+        if (PartialFiles.isPartial(file.getFileName().toString())) {
+            // Unfinished download, continued by the next attempt unless it was abandoned
+            if (PartialFiles.deleteIfStale(file, attrs)) {
+                logger.log(Level.INFO, "Removed abandoned partial file: {0}", file);
             }
-        });
+            return true;
+        }
+        Route route = routingRules.classify(localDir, file, true);
+        if (route.isSkipped()) {
+            return true;
+        }
 
+        if (!quiescence.isComplete(localDir, file, attrs)) {
+            return false;
+        }
 
+        String remoteFilePath = remoteDir + "/" + localDir.relativize(file).toString().replace("\\", "/");
+        Path archiveCopy = archiveCopy(route, localDir.relativize(file).toString());
+        String remoteFileDir = remoteFilePath.substring(0, remoteFilePath.lastIndexOf('/'));
+        submitTransfer(batch, remoteFileDir, file, () -> uploadAndVerify(file, remoteFilePath, archiveCopy, batch));
+        return true;
     }
 
-    private void transferSftpToLocal(SFTPClient channelSftp, String remoteDir, Path localDir) throws
-            IOException, SftpException, JSchException {
-        List<RemoteResourceInfo> files = channelSftp.ls(remoteDir);
-
-        for (RemoteResourceInfo entry : files) {
-            String fileName = entry.getName();
-            Set<String> fileNames = Set.of(fileName.split("\\\\"));
+    /**
+     * @param route    Route of the bank file
+     * @param fileName Path of the file below the bank directory
+     * @return Archive path of the copy kept of the file or null if its folder is not archived
+     */
+    private Path archiveCopy(Route route, String fileName) {
+        if (archiveCopyFolders.isEmpty() || archivationDir == null || !archiveCopyFolders.contains(route.getFolder())) {
+            return null;
+        }
+        MessageArchive writer = archiveWriter;
+        return writer != null
+                ? writer.stagingPath(fileName).normalize()
+                : archivationDir.resolve(dateFormattedPath()).resolve(fileName).normalize();
+    }
 
-            if (fileName.isEmpty()) {
-                continue;
+    /**
+     * Uploads a local file and hands the verification to the verification threads,
+     * so the channel and the worker are free for the next file while the remote file is hashed.
+     *
+     * @param file           File to upload
+     * @param remoteFilePath Remote destination path
+     * @param archiveCopy    Archive path of a copy kept of the file, null for none
+     * @param batch          Batch the verification is tracked in
+     * @return False if the upload failed, null if the outcome is reported by the verification
+     */
+    private Boolean uploadAndVerify(Path file, String remoteFilePath, Path archiveCopy, TransferWorkerPool.Batch batch)
+            throws IOException, InterruptedException {
+        JournalEntry entry = journal == null ? null : journal.get(file.toString());
+        if (entry != null && entry.getDestination().equals(remoteFilePath)) {
+            // Left over from an interrupted cycle, verify what is already there before uploading again
+            try {
+                sessionPool.execute(sftpClient -> {
+                    recoverUpload(entry, sftpClient);
+                    return null;
+                });
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to recover transfer: " + file, e);
             }
+            if (!Files.exists(file)) {
+                return true;
+            }
+        }
+        CopyResult uploaded;
+        try {
+            journal(TransferState.DETECTED, file, remoteFilePath);
+            uploaded = archiveCopy == null ? upload(file, remoteFilePath) : uploadAndArchive(file, remoteFilePath, archiveCopy);
+            journal(TransferState.COPIED, file, remoteFilePath);
+            logger.log(Level.INFO, "File uploaded successfully: {0}", file);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to upload file: " + file, e);
+            metrics.recordFailure(Direction.BANK_TO_SB);
+            return false;
+        }
+        batch.track(CompletableFuture.supplyAsync(() -> verifyUpload(file, uploaded, remoteFilePath, archiveCopy), verificationExecutor));
+        return null;
+    }
 
-
-            if (".".equals(fileName) || "..".equals(fileName)) {
-                continue; // Skip current and parent directory entries
+    /**
+     * Verifies an uploaded partial file. If it matches, it is renamed to the remote destination and the local file
+     * is deleted, otherwise the partial file is deleted. The archive copy, already checked by the upload, is published
+     * only after the remote file, and discarded if the remote file is not.
+     *
+     * @param file           Uploaded local file
+     * @param uploaded       Result of the upload
+     * @param remoteFilePath Remote destination path
+     * @param archiveCopy    Archive path of the copy kept of the file, null for none
+     * @return True if the file was moved
+     */
+    private boolean verifyUpload(Path file, CopyResult uploaded, String remoteFilePath, Path archiveCopy) {
+        String partialPath = PartialFiles.partialPath(remoteFilePath);
+        try {
+            long verificationStart = System.nanoTime();
+            boolean verified = verifier.verify(file, uploaded, partialPath);
+            metrics.recordHash(System.nanoTime() - verificationStart);
+            if (verified) {
+                try {
+                    remoteFiles.publish(partialPath, remoteFilePath);
+                } catch (IOException e) {
+                    // Not delivered, so not archived either, both are written again by the next attempt
+                    if (archiveCopy != null) {
+                        Files.deleteIfExists(PartialFiles.partialPath(archiveCopy));
+                    }
+                    throw e;
+                }
+                journal(TransferState.VERIFIED, file, remoteFilePath);
+                if (archiveCopy != null) {
+                    publishArchiveCopy(archiveCopy, uploaded.getDigest());
+                }
+                Files.delete(file);
+                journal(TransferState.SOURCE_DELETED, file, remoteFilePath);
+                quiescence.transferred(bankDir, file);
+                metrics.recordMoved(Direction.BANK_TO_SB, uploaded.getSize());
+                logger.log(Level.INFO, "Successfully copied file: {0} to {1}", new Object[]{file, remoteFilePath});
+                return true;
+            }
+            try {
+                remoteFiles.delete(partialPath);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to delete file from sftp!");
             }
-            if (fileName.startsWith(BATCH_FOLDER + FILE_SEPARATOR + FROM_ODB_FOLDER) &&
-                    (!fileName.startsWith(BATCH_FOLDER) || !fileName.startsWith(MSG_ARCH_FOLDER))) {
-                continue;
+            if (archiveCopy != null) {
+                Files.deleteIfExists(PartialFiles.partialPath(archiveCopy));
             }
+            journal(TransferState.DISCARDED, file, remoteFilePath);
+            logger.log(Level.WARNING, "Hash doesn't match. Will scan again!");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // The journal still says COPIED, the file is verified again on the next attempt
+            logger.log(Level.WARNING, "Failed to verify file: " + remoteFilePath, e);
+        }
+        metrics.recordFailure(Direction.BANK_TO_SB);
+        return false;
+    }
 
-            Set<String> scannFolders = new HashSet<>(BANK_FOLDERS);
-            Set<String> fileStructure = new HashSet<>(fileNames);
+    /**
+     * Publishes the archive copy of a delivered file. The file is not uploaded again if this fails,
+     * that would deliver it twice.
+     *
+     * @param archiveCopy Archive path of the copy
+     * @param digest      Digest of the copy
+     */
+    private void publishArchiveCopy(Path archiveCopy, byte[] digest) {
+        try {
+            PartialFiles.publish(PartialFiles.partialPath(archiveCopy), archiveCopy);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Unable to publish archive copy: " + archiveCopy, e);
+            return;
+        }
+        MessageArchive writer = archiveWriter;
+        if (writer != null) {
+            writer.archive(archiveCopy, digest);
+        }
+    }
 
-            Set<String> commanNames = new HashSet<>(scannFolders);
-            commanNames.retainAll(fileStructure);
-            if (!commanNames.isEmpty()) {
-                continue;
-            }
+    /**
+     * Queues a transfer into the worker pool, blocking while the pool is at capacity or the destination directory
+     * is at its limit.
+     *
+     * @param batch       Batch of the current cycle
+     * @param destination Destination directory the per-destination limit applies to
+     * @param file        Transferred file, used for the error message
+     * @param transfer    Transfer to run
+     */
+    private void submitTransfer(TransferWorkerPool.Batch batch, String destination, Object file, Callable<Boolean> transfer) throws InterruptedIOException {
+        try {
+            batch.submit(destination, transfer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing file: " + file);
+        }
+    }
 
-            if (entry.isDirectory()) {
-                // It's a directory, go inside and call recursively
-                transferSftpToLocal(channelSftp, remoteDir + "/" + fileName, localDir);
-            } else {
-                String fileExtension = getFileExtension(fileName);
-                if (shouldTransferFile(entry) && ALLOWED_FILE_EXTENSIONS.contains(fileExtension)) {
-                    int index = fileName.indexOf(FILE_SEPARATOR);
-                    fileName = index != -1 ? fileName.substring(index + 1) : fileName;
-                    if (fileName.contains(FROM_ODB_FOLDER + FILE_SEPARATOR)) {
-                        fileName = fileName.replace(FROM_ODB_FOLDER + FILE_SEPARATOR, "");
+    /**
+     * Lists the remote SB directory and queues the download of every stable file outside the bank folders
+     * that was not downloaded before in its current version.
+     * Sibling directories are listed concurrently and the files are handed over in batches,
+     * so the first downloads start while deeper directories are still being read.
+     *
+     * @param remoteDir Remote SB directory
+     * @param localDir  Local bank directory
+     * @param batch     Batch the downloads are queued into
+     */
+    private void transferSftpToLocal(String remoteDir, Path localDir, TransferWorkerPool.Batch batch) throws IOException {
+        Set<String> listed = new HashSet<>();
+        try (FileListing listing = remoteFiles.list(remoteDir, dir -> !routingRules.isBankFolder(dir.getName()), LISTING_BATCH_SIZE)) {
+            for (List<FileEntry> entries = listing.nextBatch(); !entries.isEmpty(); entries = listing.nextBatch()) {
+                for (FileEntry entry : entries) {
+                    String fileName = entry.getName();
+                    if (fileName.isEmpty() || routingRules.isBankFolder(fileName)) {
+                        continue;
                     }
-
-                    // Handle the SSBSync directory and folder structure
-                    if (fileName.startsWith(MSG_ARCH_FOLDER)) {
-                        Path finalArchivationDir = archivationDir.resolve(dateFormattedPath());
-                        Path archiveFile = finalArchivationDir.resolve(fileName);
-                        channelSftp.get(remoteDir + "/" + fileName, archiveFile.normalize().toString());
-                    } else {
-                        String localFilePath = localDir.normalize().toString();
-                        channelSftp.get(remoteDir + "/" + fileName, localFilePath);
-                        logger.log(Level.INFO, "File downloaded successfully: " + localFilePath);
+                    listed.add(entry.getPath());
+                    if (entry.equals(downloaded.get(entry.getPath()))) {
+                        continue;
+                    }
+                    if (routingRules.hasAllowedExtension(fileName) && isStable(entry)) {
+                        queueDownload(entry, localDir, batch);
                     }
                 }
             }
         }
-
+        // Only after a complete listing, a failed one must not make the files look new
+        downloaded.keySet().retainAll(listed);
     }
 
-
-    private boolean shouldTransferFile(BasicFileAttributes attrs) {
-        long lastModifiedMillis = attrs.lastModifiedTime().toMillis();
-        long currentTimeMillis = System.currentTimeMillis();
-        return currentTimeMillis - lastModifiedMillis >= TWO_MINUTES;
+    /**
+     * Queues the download of a remote file, files starting with msgArch go to the archive.
+     *
+     * @param entry    Remote file
+     * @param localDir Local bank directory
+     * @param batch    Batch the download is queued into
+     */
+    private void queueDownload(FileEntry entry, Path localDir, TransferWorkerPool.Batch batch) throws IOException {
+        String fileName = entry.getName();
+        String remoteFilePath = entry.getPath();
+        long size = entry.getSize();
+        // Handle the SSBSync directory and folder structure
+        if (fileName.startsWith(MSG_ARCH_FOLDER)) {
+            MessageArchive writer = archiveWriter;
+            Path archiveFile = writer != null
+                    ? writer.stagingPath(fileName).normalize()
+                    : archivationDir.resolve(dateFormattedPath()).resolve(fileName).normalize();
+            submitTransfer(batch, archiveFile.getParent().toString(), remoteFilePath, () -> {
+                CopyResult result = downloadFile(remoteFilePath, archiveFile, size);
+                downloaded.put(remoteFilePath, entry);
+                if (writer != null) {
+                    writer.archive(archiveFile, result.getDigest());
+                }
+                return true;
+            });
+        } else {
+            Path localFile = localDir.normalize().resolve(fileName);
+            submitTransfer(batch, localFile.getParent().toString(), remoteFilePath, () -> {
+                downloadFile(remoteFilePath, localFile, size);
+                downloaded.put(remoteFilePath, entry);
+                logger.log(Level.INFO, "File downloaded successfully: {0}", localFile);
+                return true;
+            });
+        }
     }
 
-    private boolean shouldTransferFile(RemoteResourceInfo entry) {
-        long modTime = entry.getAttributes().getMtime(); // Get modification time in seconds
-        long modTimeMillis = modTime * 1000;
-        long currentTimeMillis = System.currentTimeMillis();
-        return currentTimeMillis - modTimeMillis >= TWO_MINUTES;
+    /**
+     * Uploads a file into the partial file of the remote destination, continuing an interrupted upload from where
+     * it stopped. The partial file is renamed once it is verified.
+     *
+     * @param file           Local file
+     * @param remoteFilePath Remote destination path
+     * @return Size and digest of the uploaded file
+     */
+    private CopyResult upload(Path file, String remoteFilePath) throws IOException {
+        String partialPath = PartialFiles.partialPath(remoteFilePath);
+        CopyResult result = pipeline.copy(localFiles, file.toString(), remoteFiles, partialPath);
+        if (!result.isVerified()) {
+            throw new IOException("Remote size does not match after upload: " + partialPath);
+        }
+        if (result.getResumedFrom() > 0) {
+            logger.log(Level.INFO, "Resumed upload of {0} at byte {1}", new Object[]{file, result.getResumedFrom()});
+        }
+        return result;
     }
 
-    private static String getFileExtension(String fileName) {
-        int dotIndex = fileName.lastIndexOf(".");
-        return dotIndex == -1 ? "" : fileName.substring(dotIndex + 1);
+    /**
+     * Uploads a file and writes its archive copy from the same read. Neither partial file is published here:
+     * the archive copy is checked by its size, the upload is verified and published by {@link #verifyUpload}.
+     *
+     * @param file           Local file
+     * @param remoteFilePath Remote destination path
+     * @param archiveCopy    Archive path of the copy
+     * @return Size and digest of the uploaded file
+     */
+    private CopyResult uploadAndArchive(Path file, String remoteFilePath, Path archiveCopy) throws IOException {
+        String partialPath = PartialFiles.partialPath(remoteFilePath);
+        Path archivePartial = PartialFiles.partialPath(archiveCopy);
+        List<CopyResult> results = pipeline.fanOut(localFiles, file.toString(), List.of(
+                new TransferSink(remoteFiles, partialPath), new TransferSink(localFiles, archivePartial.toString())));
+        if (!results.get(0).isVerified()) {
+            throw new IOException("Remote size does not match after upload: " + partialPath);
+        }
+        if (!results.get(1).isVerified()) {
+            throw new IOException("Archive copy size does not match: " + archivePartial);
+        }
+        return results.get(0);
     }
 
-    private static void ensureDirectoryExists(SFTPClient sftp, String directoryPath) throws IOException {
+    /**
+     * Downloads a file and records it in the metrics.
+     *
+     * @param remoteFilePath Remote source path
+     * @param localFile      Local destination file
+     * @param size           Size of the remote file
+     * @return Size and digest of the downloaded file
+     */
+    private CopyResult downloadFile(String remoteFilePath, Path localFile, long size) throws IOException {
+        CopyResult result;
         try {
-            sftp.ls(directoryPath); // Check if directory exists
-        } catch (SFTPException e) {
-            if (e.getStatusCode() == Response.StatusCode.NO_SUCH_FILE) {
-                sftp.mkdirs(directoryPath); // Create directory if it does not exist
-            } else {
-                throw e; // Re-throw if other exception
+            result = download(remoteFilePath, localFile);
+            quiescence.forget(remoteFilePath);
+        } catch (IOException e) {
+            metrics.recordFailure(Direction.SB_TO_BANK);
+            throw e;
+        }
+        metrics.recordMoved(Direction.SB_TO_BANK, size);
+        return result;
+    }
+
+    /**
+     * Downloads a file into a local partial file, which is renamed to the local file in one step once it is complete.
+     * An interrupted download continues from where it stopped and is then compared with the remote file as a whole
+     * by the {@link RemoteFileVerifier}, with a server side checksum where the server offers one.
+     *
+     * @param remoteFilePath Remote source path
+     * @param localFile      Local destination file
+     * @return Size and digest of the downloaded file
+     */
+    private CopyResult download(String remoteFilePath, Path localFile) throws IOException {
+        String partialPath = PartialFiles.partialPath(localFile).toString();
+        CopyResult result = pipeline.copy(remoteFiles, remoteFilePath, localFiles, partialPath);
+        if (!result.isVerified()) {
+            throw new IOException("Local size does not match after download: " + partialPath);
+        }
+        if (result.getResumedFrom() > 0) {
+            logger.log(Level.INFO, "Resumed download of {0} at byte {1}", new Object[]{remoteFilePath, result.getResumedFrom()});
+            boolean matches;
+            long verificationStart = System.nanoTime();
+            try {
+                matches = verifier.verify(Paths.get(partialPath), result, remoteFilePath);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while verifying: " + remoteFilePath);
+            }
+            metrics.recordHash(System.nanoTime() - verificationStart);
+            if (!matches) {
+                localFiles.delete(partialPath);
+                throw new IOException("Resumed download does not match the remote file: " + remoteFilePath);
             }
         }
+        localFiles.publish(partialPath, localFile.toString());
+        return result;
+    }
+
+    /**
+     * Checks whether the writer of a remote file is done with it. The server clock may be off, so only listings
+     * that saw the file unchanged for the quiescence period count, not the age of its modification time.
+     *
+     * @param entry Remote file
+     * @return True if size and modification time did not change for the quiescence period
+     */
+    private boolean isStable(FileEntry entry) {
+        return quiescence.isStable(entry.getPath(), entry.getSize(), entry.getModifiedMillis());
     }
 
     private String dateFormattedPath() {
@@ -319,5 +1080,6 @@ public class BankMessageSFTPMover implements MessageMover {
 
     public void setBankFolders(List<String> bankFolders) {
         BANK_FOLDERS.addAll(bankFolders);
+        routingRules = RoutingRules.compile(BANK_FOLDERS, ALLOWED_FILE_EXTENSIONS);
     }
 }
@@ -0,0 +1,30 @@
+package com.itg.metrics;
+
+/**
+ * Direction files are moved in.
+ */
+public enum Direction {
+    BANK_TO_SB("bank_to_sb"),
+    SB_TO_BANK("sb_to_bank");
+
+    private final String label;
+
+    Direction(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @param fromBank If true, the file comes from the bank directory
+     * @return Direction of the file
+     */
+    public static Direction of(boolean fromBank) {
+        return fromBank ? BANK_TO_SB : SB_TO_BANK;
+    }
+
+    /**
+     * @return Label value used in the exported metrics
+     */
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,122 @@
+package com.itg.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with fixed, exponentially growing buckets from 1 ms to about 17 minutes.
+ * <p>
+ * Every bucket is a striped {@link LongAdder}, so recording from many transfer threads does not contend
+ * and never allocates. Percentiles are estimated with the upper bound of the bucket they fall into.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 21;
+    private static final long[] UPPER_BOUNDS_NANOS = new long[BUCKET_COUNT];
+
+    static {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            UPPER_BOUNDS_NANOS[i] = TimeUnit.MILLISECONDS.toNanos(1L << i);
+        }
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets[bucketOf(value)].increment();
+        count.increment();
+        sumNanos.add(value);
+    }
+
+    /**
+     * Records the time elapsed since the given {@link System#nanoTime()} value.
+     *
+     * @param startNanos Start of the measured operation
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * @return Mean duration in milliseconds, 0 if nothing was recorded
+     */
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : sumNanos.sum() / (double) n / 1_000_000;
+    }
+
+    /**
+     * @param quantile Quantile between 0 and 1
+     * @return Upper bound in milliseconds of the bucket the quantile falls into, 0 if nothing was recorded
+     */
+    public double getPercentileMillis(double quantile) {
+        long[] counts = bucketCounts();
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return UPPER_BOUNDS_NANOS[i] / 1_000_000.0;
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return Number of recorded durations per bucket, the last bucket holds everything above the largest bound
+     */
+    long[] bucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @return Upper bounds of the buckets except the last one, in seconds
+     */
+    static double[] upperBoundsSeconds() {
+        double[] bounds = new double[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bounds[i] = UPPER_BOUNDS_NANOS[i] / 1e9;
+        }
+        return bounds;
+    }
+
+    private static int bucketOf(long nanos) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (nanos <= UPPER_BOUNDS_NANOS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_COUNT;
+    }
+}
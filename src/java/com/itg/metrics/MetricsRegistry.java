@@ -0,0 +1,203 @@
+package com.itg.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide registry of the mover metrics.
+ * <p>
+ * Registered metrics are published as MBeans under {@code com.itg:type=TransferMetrics,name=<mover>} and,
+ * once {@link #startHttpEndpoint(int)} was called, in the Prometheus text format on
+ * {@code http://127.0.0.1:<port>/metrics}. The endpoint only listens on the loopback interface.
+ */
+public final class MetricsRegistry {
+
+    static Logger logger = Logger.getLogger("BankMessageMover");
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+    private static final String PREFIX = "itg_";
+
+    private final List<TransferMetrics> metrics = new CopyOnWriteArrayList<>();
+    private HttpServer httpServer;
+
+    private MetricsRegistry() {
+    }
+
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Publishes the metrics, replacing metrics registered under the same name.
+     *
+     * @param transferMetrics Metrics of a mover
+     */
+    public void register(TransferMetrics transferMetrics) {
+        metrics.removeIf(existing -> existing.getName().equals(transferMetrics.getName()));
+        metrics.add(transferMetrics);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = objectName(transferMetrics.getName());
+            try {
+                server.registerMBean(transferMetrics, objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(objectName);
+                server.registerMBean(transferMetrics, objectName);
+            }
+        } catch (JMException e) {
+            logger.log(Level.WARNING, "Unable to register metrics MBean: " + transferMetrics.getName(), e);
+        }
+    }
+
+    /**
+     * @param transferMetrics Metrics of a stopped mover
+     */
+    public void unregister(TransferMetrics transferMetrics) {
+        if (!metrics.remove(transferMetrics)) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(transferMetrics.getName()));
+        } catch (JMException e) {
+            logger.log(Level.FINE, "Unable to unregister metrics MBean: " + transferMetrics.getName(), e);
+        }
+    }
+
+    /**
+     * Starts serving the metrics on the loopback interface. Does nothing if the endpoint is running.
+     *
+     * @param port Port to listen on
+     */
+    public synchronized void startHttpEndpoint(int port) throws IOException {
+        if (httpServer != null) {
+            return;
+        }
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = toPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        httpServer = server;
+        logger.log(Level.INFO, "Metrics available on http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + "/metrics");
+    }
+
+    public synchronized void stopHttpEndpoint() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+    }
+
+    /**
+     * @return All registered metrics in the Prometheus text exposition format
+     */
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder(4096);
+        histogram(out, "cycle_duration_seconds", "Duration of a scan cycle.", TransferMetrics::getCycleDuration);
+        histogram(out, "hash_duration_seconds", "Time spent hashing or verifying one file.", TransferMetrics::getHashDuration);
+        perDirection(out, "files_moved_total", "Files moved.", TransferMetrics::getFiles);
+        perDirection(out, "bytes_moved_total", "Bytes moved.", TransferMetrics::getBytes);
+        perDirection(out, "transfer_failures_total", "Transfers that failed.", TransferMetrics::getFailures);
+        gauge(out, "sftp_requests_total", "counter", "SFTP requests sent to the server.", TransferMetrics::getSftpRequests);
+        gauge(out, "backlog_files", "gauge", "Files queued or in transfer.", TransferMetrics::getBacklogSize);
+        gauge(out, "oldest_pending_age_seconds", "gauge", "Age of the oldest file waiting for a transfer.",
+                TransferMetrics::getOldestPendingAgeSeconds);
+        return out.toString();
+    }
+
+    private void histogram(StringBuilder out, String name, String help,
+                           Function<TransferMetrics, LatencyHistogram> histogram) {
+        header(out, name, "histogram", help);
+        double[] bounds = LatencyHistogram.upperBoundsSeconds();
+        for (TransferMetrics transferMetrics : metrics) {
+            LatencyHistogram values = histogram.apply(transferMetrics);
+            long[] counts = values.bucketCounts();
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += counts[i];
+                sample(out, name + "_bucket", transferMetrics, null, "le=\"" + format(bounds[i]) + "\"", cumulative);
+            }
+            cumulative += counts[bounds.length];
+            sample(out, name + "_bucket", transferMetrics, null, "le=\"+Inf\"", cumulative);
+            sample(out, name + "_sum", transferMetrics, null, null, values.getSumNanos() / 1e9);
+            sample(out, name + "_count", transferMetrics, null, null, cumulative);
+        }
+    }
+
+    private void perDirection(StringBuilder out, String name, String help, DirectionValue value) {
+        header(out, name, "counter", help);
+        for (TransferMetrics transferMetrics : metrics) {
+            for (Direction direction : Direction.values()) {
+                sample(out, name, transferMetrics, direction, null, value.get(transferMetrics, direction));
+            }
+        }
+    }
+
+    private void gauge(StringBuilder out, String name, String type, String help, ToDoubleFunction<TransferMetrics> value) {
+        header(out, name, type, help);
+        for (TransferMetrics transferMetrics : metrics) {
+            sample(out, name, transferMetrics, null, null, value.applyAsDouble(transferMetrics));
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, TransferMetrics transferMetrics, Direction direction,
+                               String extraLabel, double value) {
+        out.append(PREFIX).append(name).append("{mover=\"").append(transferMetrics.getName()).append('"');
+        if (direction != null) {
+            out.append(",direction=\"").append(direction.getLabel()).append('"');
+        }
+        if (extraLabel != null) {
+            out.append(',').append(extraLabel);
+        }
+        out.append("} ").append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static ObjectName objectName(String name) throws JMException {
+        return new ObjectName("com.itg:type=TransferMetrics,name=" + ObjectName.quote(name));
+    }
+
+    @FunctionalInterface
+    private interface DirectionValue {
+        long get(TransferMetrics metrics, Direction direction);
+    }
+}
@@ -0,0 +1,194 @@
+package com.itg.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of one mover: cycle and hash durations, files, bytes and failures per direction,
+ * SFTP requests, the transfer backlog and the age of the oldest file waiting for a transfer.
+ * <p>
+ * Counters are striped {@link LongAdder}s updated by the transfer threads. Values owned by other
+ * components, such as the backlog, are read through suppliers when the metrics are exported.
+ */
+public class TransferMetrics implements TransferMetricsMBean {
+
+    private static final LongSupplier NONE = () -> 0;
+
+    private final String name;
+    private final LatencyHistogram cycleDuration = new LatencyHistogram();
+    private final LatencyHistogram hashDuration = new LatencyHistogram();
+    private final LongAdder[] files = newAdders();
+    private final LongAdder[] bytes = newAdders();
+    private final LongAdder[] failures = newAdders();
+
+    private volatile LongSupplier sftpRequests = NONE;
+    private volatile LongSupplier backlogSize = NONE;
+    private volatile LongSupplier oldestPendingMillis = NONE;
+
+    /**
+     * @param name Name of the mover, used as label and in the JMX object name
+     */
+    public TransferMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} at the start of the cycle
+     */
+    public void recordCycle(long startNanos) {
+        cycleDuration.recordSince(startNanos);
+    }
+
+    /**
+     * @param nanos Time spent hashing or verifying one file
+     */
+    public void recordHash(long nanos) {
+        hashDuration.record(nanos);
+    }
+
+    /**
+     * @param direction Direction of the file
+     * @param size      Size of the moved file
+     */
+    public void recordMoved(Direction direction, long size) {
+        files[direction.ordinal()].increment();
+        bytes[direction.ordinal()].add(size);
+    }
+
+    /**
+     * @param direction Direction of the file that could not be moved
+     */
+    public void recordFailure(Direction direction) {
+        failures[direction.ordinal()].increment();
+    }
+
+    /**
+     * @param sftpRequests Supplies the number of SFTP requests sent so far
+     */
+    public void setSftpRequests(LongSupplier sftpRequests) {
+        this.sftpRequests = sftpRequests;
+    }
+
+    /**
+     * @param backlogSize Supplies the number of files queued or in transfer
+     */
+    public void setBacklogSize(LongSupplier backlogSize) {
+        this.backlogSize = backlogSize;
+    }
+
+    /**
+     * @param oldestPendingMillis Supplies the epoch millis at which the oldest file not transferred yet was
+     *                            detected, or 0 if there is none
+     */
+    public void setOldestPending(LongSupplier oldestPendingMillis) {
+        this.oldestPendingMillis = oldestPendingMillis;
+    }
+
+    LatencyHistogram getCycleDuration() {
+        return cycleDuration;
+    }
+
+    LatencyHistogram getHashDuration() {
+        return hashDuration;
+    }
+
+    long getFiles(Direction direction) {
+        return files[direction.ordinal()].sum();
+    }
+
+    long getBytes(Direction direction) {
+        return bytes[direction.ordinal()].sum();
+    }
+
+    long getFailures(Direction direction) {
+        return failures[direction.ordinal()].sum();
+    }
+
+    @Override
+    public long getCycleCount() {
+        return cycleDuration.getCount();
+    }
+
+    @Override
+    public double getCycleDurationMeanMillis() {
+        return cycleDuration.getMeanMillis();
+    }
+
+    @Override
+    public double getCycleDurationP99Millis() {
+        return cycleDuration.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public long getFilesBankToSb() {
+        return getFiles(Direction.BANK_TO_SB);
+    }
+
+    @Override
+    public long getFilesSbToBank() {
+        return getFiles(Direction.SB_TO_BANK);
+    }
+
+    @Override
+    public long getBytesBankToSb() {
+        return getBytes(Direction.BANK_TO_SB);
+    }
+
+    @Override
+    public long getBytesSbToBank() {
+        return getBytes(Direction.SB_TO_BANK);
+    }
+
+    @Override
+    public long getFailuresBankToSb() {
+        return getFailures(Direction.BANK_TO_SB);
+    }
+
+    @Override
+    public long getFailuresSbToBank() {
+        return getFailures(Direction.SB_TO_BANK);
+    }
+
+    @Override
+    public long getHashCount() {
+        return hashDuration.getCount();
+    }
+
+    @Override
+    public double getHashDurationMeanMillis() {
+        return hashDuration.getMeanMillis();
+    }
+
+    @Override
+    public double getHashDurationP99Millis() {
+        return hashDuration.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public long getSftpRequests() {
+        return sftpRequests.getAsLong();
+    }
+
+    @Override
+    public long getBacklogSize() {
+        return backlogSize.getAsLong();
+    }
+
+    @Override
+    public long getOldestPendingAgeSeconds() {
+        long oldest = oldestPendingMillis.getAsLong();
+        return oldest <= 0 ? 0 : Math.max(0, (System.currentTimeMillis() - oldest) / 1000);
+    }
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[Direction.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
@@ -0,0 +1,37 @@
+package com.itg.metrics;
+
+/**
+ * JMX view of the {@link TransferMetrics} of one mover.
+ */
+public interface TransferMetricsMBean {
+
+    long getCycleCount();
+
+    double getCycleDurationMeanMillis();
+
+    double getCycleDurationP99Millis();
+
+    long getFilesBankToSb();
+
+    long getFilesSbToBank();
+
+    long getBytesBankToSb();
+
+    long getBytesSbToBank();
+
+    long getFailuresBankToSb();
+
+    long getFailuresSbToBank();
+
+    long getHashCount();
+
+    double getHashDurationMeanMillis();
+
+    double getHashDurationP99Millis();
+
+    long getSftpRequests();
+
+    long getBacklogSize();
+
+    long getOldestPendingAgeSeconds();
+}
@@ -1,85 +1,183 @@
 package com.itg.printer;
 
-import javax.print.*;
-import javax.print.attribute.HashPrintRequestAttributeSet;
-import javax.print.attribute.PrintRequestAttributeSet;
-import java.io.FileInputStream;
+import com.itg.scan.WriteQuiescenceDetector;
+
+import javax.print.DocFlavor;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 
-public class PrintApplication {
+/**
+ * Prints the files arriving below a directory on the printer mapped to their folder.
+ * <p>
+ * The whole tree is watched. A file is printed on the printer of the nearest enclosing folder named in
+ * {@code folderPrinterMap}, files outside of mapped folders are ignored. The watcher thread only dispatches,
+ * every printer has its own {@link PrinterQueue}, so a slow or offline printer does not hold up the others.
+ * Print services come from a {@link PrinterRegistry} that is refreshed every few minutes.
+ */
+public class PrintApplication implements Closeable {
+
+    static Logger logger = Logger.getLogger("BankMessageMover");
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 5;
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long REGISTRY_REFRESH_MINUTES = 5;
+    private static final DocFlavor FLAVOR = DocFlavor.INPUT_STREAM.AUTOSENSE;
 
     private final Path dir;
     private final WatchService watcher;
     private final Map<String, String> folderPrinterMap;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Map<String, PrinterQueue> queues = new ConcurrentHashMap<>();
+    private final PrinterRegistry registry = new PrinterRegistry(FLAVOR);
+    private final WriteQuiescenceDetector quiescence = new WriteQuiescenceDetector();
+    private final ScheduledExecutorService refresher;
 
     public PrintApplication(String dirString, Map<String, String> folderPrinterMap) throws IOException {
         this.dir = Paths.get(dirString);
         this.watcher = FileSystems.getDefault().newWatchService();
         this.folderPrinterMap = folderPrinterMap;
-        dir.register(watcher, ENTRY_CREATE);
+        registerAll(dir, false);
+
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "printer-registry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshPrinters, 0, REGISTRY_REFRESH_MINUTES, TimeUnit.MINUTES);
     }
 
+    /**
+     * Dispatches watch events to the printer queues until the application is closed.
+     */
     public void processEvents() {
         for (; ; ) {
             WatchKey key;
             try {
                 key = watcher.take();
-            } catch (InterruptedException x) {
+            } catch (InterruptedException | ClosedWatchServiceException x) {
                 return;
             }
+            Path watchedDir = keys.get(key);
+            if (watchedDir == null) {
+                key.cancel();
+                continue;
+            }
 
             for (WatchEvent<?> event : key.pollEvents()) {
                 WatchEvent.Kind<?> kind = event.kind();
 
                 if (kind == StandardWatchEventKinds.OVERFLOW) {
+                    // Files missed here cannot be told apart from files printed before, they are not printed
+                    logger.log(Level.WARNING, "Print folder events were lost in " + watchedDir);
                     continue;
                 }
 
                 @SuppressWarnings("unchecked")
                 WatchEvent<Path> ev = (WatchEvent<Path>) event;
-                Path filename = ev.context();
+                Path file = watchedDir.resolve(ev.context());
+                if (Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS)) {
+                    try {
+                        registerAll(file, true);
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Unable to watch print folder " + file, e);
+                    }
+                } else {
+                    dispatch(file);
+                }
+            }
 
-                String folderName = filename.getParent().getFileName().toString();
-                String printerName = folderPrinterMap.getOrDefault(folderName, "Default Printer");
-                System.out.println("New file detected: " + filename + ", Printer: " + printerName);
-                onPrintEvent(dir.resolve(filename).toString(), printerName);
+            if (!key.reset()) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    break;
+                }
             }
+        }
+    }
 
-            boolean valid = key.reset();
-            if (!valid) {
+    /**
+     * Queues a file on the printer of its folder.
+     *
+     * @param file File below the watched directory
+     */
+    public void dispatch(Path file) {
+        String printerName = printerFor(file);
+        if (printerName == null) {
+            return;
+        }
+        logger.log(Level.INFO, "New file detected: {0}, Printer: {1}", new Object[]{file, printerName});
+        queues.computeIfAbsent(printerName, name -> new PrinterQueue(name, registry, FLAVOR, quiescence,
+                DEFAULT_MAX_ATTEMPTS, DEFAULT_RETRY_DELAY_MILLIS)).submit(file);
+    }
+
+    /**
+     * @param file File below the watched directory
+     * @return Printer of the nearest enclosing mapped folder or null
+     */
+    String printerFor(Path file) {
+        for (Path folder = file.getParent(); folder != null && folder.startsWith(dir); folder = folder.getParent()) {
+            Path name = folder.getFileName();
+            String printerName = name == null ? null : folderPrinterMap.get(name.toString());
+            if (printerName != null && !printerName.isEmpty()) {
+                return printerName;
+            }
+            if (folder.equals(dir)) {
                 break;
             }
         }
+        return null;
     }
 
-    public void onPrintEvent(String filePath, String printerName) {
-        DocFlavor flavor = DocFlavor.INPUT_STREAM.AUTOSENSE;
-        PrintRequestAttributeSet pras = new HashPrintRequestAttributeSet();
+    /**
+     * Stops watching and drops the jobs still waiting.
+     */
+    @Override
+    public void close() throws IOException {
+        refresher.shutdownNow();
+        watcher.close();
+        queues.values().forEach(PrinterQueue::shutdown);
+    }
 
-        PrintService[] printServices = PrintServiceLookup.lookupPrintServices(flavor, pras);
-        PrintService selectedService = null;
+    private void refreshPrinters() {
+        try {
+            registry.refresh();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Unable to look up printers.", e);
+        }
+    }
 
-        for (PrintService service : printServices) {
-            if (service.getName().equalsIgnoreCase(printerName)) {
-                selectedService = service;
-                break;
+    /**
+     * Watches a directory and everything below it.
+     *
+     * @param start      Directory to watch
+     * @param queueFiles If true, files already in the tree are printed, they arrived before the tree was watched
+     */
+    private void registerAll(Path start, boolean queueFiles) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attrs) throws IOException {
+                keys.put(directory.register(watcher, ENTRY_CREATE), directory);
+                return FileVisitResult.CONTINUE;
             }
-        }
 
-        if (selectedService != null) {
-            DocPrintJob job = selectedService.createPrintJob();
-            try (FileInputStream fis = new FileInputStream(filePath)) {
-                Doc doc = new SimpleDoc(fis, flavor, null);
-                job.print(doc, pras);
-            } catch (PrintException | IOException e) {
-                e.printStackTrace();
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (queueFiles) {
+                    dispatch(file);
+                }
+                return FileVisitResult.CONTINUE;
             }
-        } else {
-            System.out.println("Printer not found: " + printerName);
-        }
+        });
     }
 }
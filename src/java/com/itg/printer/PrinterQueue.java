@@ -0,0 +1,147 @@
+package com.itg.printer;
+
+import com.itg.scan.WriteQuiescenceDetector;
+
+import javax.print.Doc;
+import javax.print.DocFlavor;
+import javax.print.PrintException;
+import javax.print.PrintService;
+import javax.print.SimpleDoc;
+import javax.print.attribute.HashPrintRequestAttributeSet;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Jobs of one printer, printed one after the other on the printer's own thread.
+ * <p>
+ * A job waits until its file is complete. A failed job is retried with a doubling delay up to
+ * {@code maxAttempts} times, the queue keeps printing the other jobs meanwhile.
+ */
+public class PrinterQueue {
+
+    static Logger logger = Logger.getLogger("BankMessageMover");
+
+    private static final long COMPLETION_CHECK_MILLIS = 1000;
+
+    private final String printerName;
+    private final PrinterRegistry registry;
+    private final DocFlavor flavor;
+    private final WriteQuiescenceDetector quiescence;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final ScheduledExecutorService worker;
+    private final Set<Path> queued = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param printerName      Name of the printer
+     * @param registry         Registry the print service is taken from
+     * @param flavor           Flavor the files are printed with
+     * @param quiescence       Decides when a file is complete
+     * @param maxAttempts      Number of attempts before a job is given up
+     * @param retryDelayMillis Delay before the first retry
+     */
+    public PrinterQueue(String printerName, PrinterRegistry registry, DocFlavor flavor, WriteQuiescenceDetector quiescence,
+                        int maxAttempts, long retryDelayMillis) {
+        this.printerName = printerName;
+        this.registry = registry;
+        this.flavor = flavor;
+        this.quiescence = quiescence;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryDelayMillis = retryDelayMillis;
+        this.worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "print-" + printerName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a file unless it is already waiting in this queue.
+     *
+     * @param file File to print
+     */
+    public void submit(Path file) {
+        if (queued.add(file)) {
+            schedule(file, 1, 0);
+        }
+    }
+
+    /**
+     * @return Number of jobs waiting or printing
+     */
+    public int getPendingCount() {
+        return queued.size();
+    }
+
+    /**
+     * Stops the printer thread, waiting jobs are dropped.
+     */
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    private void schedule(Path file, int attempt, long delayMillis) {
+        try {
+            worker.schedule(() -> print(file, attempt), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            queued.remove(file);
+        }
+    }
+
+    private void print(Path file, int attempt) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            queued.remove(file);
+            quiescence.forget(file.toString());
+            return;
+        } catch (IOException e) {
+            retry(file, attempt, e);
+            return;
+        }
+        if (!quiescence.isStable(file, attrs)) {
+            schedule(file, attempt, COMPLETION_CHECK_MILLIS);
+            return;
+        }
+
+        PrintService service = registry.find(printerName);
+        if (service == null) {
+            retry(file, attempt, new PrintException("Printer not found: " + printerName));
+            return;
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            Doc doc = new SimpleDoc(in, flavor, null);
+            service.createPrintJob().print(doc, new HashPrintRequestAttributeSet());
+            queued.remove(file);
+            quiescence.forget(file.toString());
+            logger.log(Level.INFO, "Printed {0} on {1}", new Object[]{file, printerName});
+        } catch (PrintException | IOException e) {
+            retry(file, attempt, e);
+        }
+    }
+
+    private void retry(Path file, int attempt, Exception cause) {
+        if (attempt >= maxAttempts) {
+            queued.remove(file);
+            quiescence.forget(file.toString());
+            logger.log(Level.SEVERE, "Giving up printing " + file + " on " + printerName + " after " + attempt + " attempt(s).", cause);
+            return;
+        }
+        long delay = retryDelayMillis << Math.min(attempt - 1, 10);
+        logger.log(Level.WARNING, "Unable to print " + file + " on " + printerName + ", retrying in " + delay + " ms: " + cause.getMessage());
+        schedule(file, attempt + 1, delay);
+    }
+}
@@ -0,0 +1,72 @@
+package com.itg.printer;
+
+import javax.print.DocFlavor;
+import javax.print.PrintService;
+import javax.print.PrintServiceLookup;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Print services by name, looked up once and refreshed periodically instead of for every file.
+ * A printer that is not known triggers an early refresh, at most once per {@code minRefreshMillis}.
+ */
+public class PrinterRegistry {
+
+    static Logger logger = Logger.getLogger("BankMessageMover");
+
+    private static final long DEFAULT_MIN_REFRESH_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final DocFlavor flavor;
+    private final long minRefreshMillis;
+    private volatile Map<String, PrintService> services = Map.of();
+    private volatile long refreshedNanos;
+
+    public PrinterRegistry(DocFlavor flavor) {
+        this(flavor, DEFAULT_MIN_REFRESH_MILLIS);
+    }
+
+    /**
+     * @param flavor           Flavor the print services have to support
+     * @param minRefreshMillis Shortest time between two refreshes triggered by an unknown printer
+     */
+    public PrinterRegistry(DocFlavor flavor, long minRefreshMillis) {
+        this.flavor = flavor;
+        this.minRefreshMillis = minRefreshMillis;
+    }
+
+    /**
+     * Looks the print services up again.
+     */
+    public synchronized void refresh() {
+        Map<String, PrintService> found = new HashMap<>();
+        for (PrintService service : PrintServiceLookup.lookupPrintServices(flavor, null)) {
+            found.put(key(service.getName()), service);
+        }
+        if (!found.keySet().equals(services.keySet())) {
+            logger.log(Level.INFO, "Printers available: " + found.size());
+        }
+        services = found;
+        refreshedNanos = System.nanoTime();
+    }
+
+    /**
+     * @param printerName Name of the printer, case is ignored
+     * @return Print service or null if there is no such printer
+     */
+    public PrintService find(String printerName) {
+        PrintService service = services.get(key(printerName));
+        if (service == null && System.nanoTime() - refreshedNanos >= TimeUnit.MILLISECONDS.toNanos(minRefreshMillis)) {
+            refresh();
+            service = services.get(key(printerName));
+        }
+        return service;
+    }
+
+    private static String key(String printerName) {
+        return printerName.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,55 @@
+package com.itg.routing;
+
+/**
+ * Outcome of routing a file. The instances are created when the rules are compiled and shared afterwards.
+ */
+public final class Route {
+
+    /**
+     * The file is not transferred.
+     */
+    public static final Route SKIP = new Route(Kind.SKIP, null);
+    /**
+     * The SB file goes to the bank directory.
+     */
+    public static final Route BANK = new Route(Kind.BANK, null);
+    /**
+     * The SB file below msgArch goes to the archive folder of the day.
+     */
+    public static final Route ARCHIVE = new Route(Kind.ARCHIVE, null);
+
+    public enum Kind {
+        SKIP, BANK, BATCH, ARCHIVE
+    }
+
+    private final Kind kind;
+    private final String folder;
+
+    Route(Kind kind, String folder) {
+        this.kind = kind;
+        this.folder = folder;
+    }
+
+    /**
+     * @param folder Bank folder the file was found in
+     * @return Route of a bank file into the batch folder of the same name on the SB side
+     */
+    static Route batch(String folder) {
+        return new Route(Kind.BATCH, folder);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return Bank folder of a {@link Kind#BATCH} route, null otherwise
+     */
+    public String getFolder() {
+        return folder;
+    }
+
+    public boolean isSkipped() {
+        return kind == Kind.SKIP;
+    }
+}
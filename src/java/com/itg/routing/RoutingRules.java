@@ -0,0 +1,228 @@
+package com.itg.routing;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * Routing rules of the movers, compiled once from the bank folders and the allowed file extensions.
+ * <p>
+ * Paths are classified by scanning their string form segment by segment and looking the segments up in
+ * character tries, so neither a directory nor a file decision allocates. Both {@code /} and the platform
+ * separator split segments, remote SFTP paths are classified with the same rules as local paths.
+ * <p>
+ * The rules are:
+ * <ul>
+ *     <li>year folders ({@code ^\d{4}$}) are never scanned</li>
+ *     <li>on the SB side {@code batch/FromODB} is never scanned, it is where bank files are delivered to</li>
+ *     <li>only files with an allowed extension are transferred</li>
+ *     <li>a bank file is transferred if it is below a bank folder, into the batch folder of that name</li>
+ *     <li>an SB file is transferred if it is not below a bank folder, below {@code msgArch} into the archive</li>
+ * </ul>
+ */
+public final class RoutingRules {
+
+    public static final String BATCH_FOLDER = "batch";
+    public static final String FROM_ODB_FOLDER = "FromODB";
+    public static final String MSG_ARCH_FOLDER = "msgArch";
+
+    private static final char PLATFORM_SEPARATOR = File.separatorChar;
+
+    private final SegmentTrie<Route> bankFolders = new SegmentTrie<>();
+    private final SegmentTrie<Boolean> extensions = new SegmentTrie<>();
+
+    private RoutingRules() {
+    }
+
+    /**
+     * @param bankFolders       Names of the folders bank files are taken from
+     * @param allowedExtensions Extensions of the transferred files, without dot
+     * @return Compiled rules
+     */
+    public static RoutingRules compile(Collection<String> bankFolders, Collection<String> allowedExtensions) {
+        RoutingRules rules = new RoutingRules();
+        for (String folder : bankFolders) {
+            if (folder != null && !folder.isEmpty()) {
+                rules.bankFolders.put(folder, Route.batch(folder));
+            }
+        }
+        for (String extension : allowedExtensions) {
+            rules.extensions.put(extension, Boolean.TRUE);
+        }
+        return rules;
+    }
+
+    /**
+     * Checks if a directory has to be scanned.
+     *
+     * @param sourceDir Source directory the walk started in
+     * @param dir       Directory below the source directory
+     * @param fromBank  If true, the directory belongs to the bank directory
+     * @return False if the whole subtree has to be skipped
+     */
+    public boolean isScannedDirectory(Path sourceDir, Path dir, boolean fromBank) {
+        String path = dir.toString();
+        if (isYearFolder(path, lastSegmentStart(path), path.length())) {
+            return false;
+        }
+        if (fromBank) {
+            return true;
+        }
+        int start = relativeStart(sourceDir.toString(), path);
+        return start < 0 || !isDeliveryFolder(path, start);
+    }
+
+    /**
+     * @param name Name of a directory
+     * @return True if the directory is one of the bank folders
+     */
+    public boolean isBankFolder(String name) {
+        return bankFolders.get(name, 0, name.length()) != null;
+    }
+
+    /**
+     * @param dir Directory
+     * @return True if the name of the directory is a year ({@code ^\d{4}$})
+     */
+    public boolean isYearFolder(Path dir) {
+        String path = dir.toString();
+        return isYearFolder(path, lastSegmentStart(path), path.length());
+    }
+
+    /**
+     * @param fileName File name or path
+     * @return True if the extension of the file is allowed
+     */
+    public boolean hasAllowedExtension(String fileName) {
+        int nameStart = lastSegmentStart(fileName);
+        int dot = fileName.lastIndexOf('.');
+        return dot >= nameStart && extensions.get(fileName, dot + 1, fileName.length()) != null;
+    }
+
+    /**
+     * Classifies a file below the source directory.
+     *
+     * @param sourceDir Source directory the file was found in
+     * @param file      File below the source directory
+     * @param fromBank  If true, the file belongs to the bank directory
+     * @return Route of the file, {@link Route#SKIP} if it is not transferred
+     */
+    public Route classify(Path sourceDir, Path file, boolean fromBank) {
+        String path = file.toString();
+        int start = relativeStart(sourceDir.toString(), path);
+        return start < 0 ? Route.SKIP : classify(path, start, fromBank);
+    }
+
+    /**
+     * Classifies a file by its path relative to the source directory, e.g. a remote path.
+     *
+     * @param relativePath Path relative to the source directory
+     * @param fromBank     If true, the file belongs to the bank directory
+     * @return Route of the file, {@link Route#SKIP} if it is not transferred
+     */
+    public Route classify(String relativePath, boolean fromBank) {
+        return classify(relativePath, 0, fromBank);
+    }
+
+    private Route classify(String path, int start, boolean fromBank) {
+        if (!hasAllowedExtension(path)) {
+            return Route.SKIP;
+        }
+        Route bankFolder = firstBankFolder(path, start);
+        if (fromBank) {
+            return bankFolder != null ? bankFolder : Route.SKIP;
+        }
+        if (bankFolder != null) {
+            return Route.SKIP;
+        }
+        int end = segmentEnd(path, start);
+        return end < path.length() && path.startsWith(MSG_ARCH_FOLDER, start) && end - start == MSG_ARCH_FOLDER.length()
+                ? Route.ARCHIVE
+                : Route.BANK;
+    }
+
+    /**
+     * @return Route of the first directory segment that is a bank folder, null if there is none
+     */
+    private Route firstBankFolder(String path, int start) {
+        int segmentStart = start;
+        while (segmentStart < path.length()) {
+            int segmentEnd = segmentEnd(path, segmentStart);
+            if (segmentEnd == path.length()) {
+                return null; // The file name itself is not a folder
+            }
+            Route route = bankFolders.get(path, segmentStart, segmentEnd);
+            if (route != null) {
+                return route;
+            }
+            segmentStart = segmentEnd + 1;
+        }
+        return null;
+    }
+
+    /**
+     * @return True if the relative path starts with {@code batch/FromODB}
+     */
+    private static boolean isDeliveryFolder(String path, int start) {
+        int first = segmentEnd(path, start);
+        if (first - start != BATCH_FOLDER.length() || !path.startsWith(BATCH_FOLDER, start) || first == path.length()) {
+            return false;
+        }
+        int second = segmentEnd(path, first + 1);
+        return second - first - 1 == FROM_ODB_FOLDER.length() && path.startsWith(FROM_ODB_FOLDER, first + 1);
+    }
+
+    private static boolean isYearFolder(String path, int start, int end) {
+        if (end - start != 4) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = path.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Index of the first character below the source directory, the length of the path for the source
+     * directory itself and -1 if the path is not below the source directory
+     */
+    private static int relativeStart(String sourceDir, String path) {
+        if (!path.startsWith(sourceDir)) {
+            return -1;
+        }
+        int start = sourceDir.length();
+        if (start == path.length()) {
+            return start;
+        }
+        if (isSeparator(path.charAt(start))) {
+            return start + 1;
+        }
+        // The source directory already ends with a separator, e.g. a root
+        return start > 0 && isSeparator(path.charAt(start - 1)) ? start : -1;
+    }
+
+    private static int segmentEnd(String path, int start) {
+        for (int i = start; i < path.length(); i++) {
+            if (isSeparator(path.charAt(i))) {
+                return i;
+            }
+        }
+        return path.length();
+    }
+
+    private static int lastSegmentStart(String path) {
+        for (int i = path.length() - 1; i >= 0; i--) {
+            if (isSeparator(path.charAt(i))) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '/' || c == PLATFORM_SEPARATOR;
+    }
+}
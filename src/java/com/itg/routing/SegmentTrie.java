@@ -0,0 +1,73 @@
+package com.itg.routing;
+
+import java.util.Arrays;
+
+/**
+ * Character trie mapping names to values, looked up on a region of a string without allocating.
+ *
+ * @param <V> Type of the values
+ */
+final class SegmentTrie<V> {
+
+    private final Node<V> root = new Node<>();
+
+    /**
+     * @param name  Name to add
+     * @param value Value returned for the name
+     */
+    void put(String name, V value) {
+        Node<V> node = root;
+        for (int i = 0; i < name.length(); i++) {
+            node = node.childOrCreate(name.charAt(i));
+        }
+        node.value = value;
+    }
+
+    /**
+     * @param text  Text containing the name
+     * @param start Index of the first character of the name
+     * @param end   Index after the last character of the name
+     * @return Value of the name or null
+     */
+    V get(String text, int start, int end) {
+        Node<V> node = root;
+        for (int i = start; i < end && node != null; i++) {
+            node = node.child(text.charAt(i));
+        }
+        return node == null ? null : node.value;
+    }
+
+    private static final class Node<V> {
+
+        private char[] keys = new char[0];
+        private Node<V>[] children = newArray(0);
+        private V value;
+
+        Node<V> child(char key) {
+            char[] keys = this.keys;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == key) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node<V> childOrCreate(char key) {
+            Node<V> child = child(key);
+            if (child == null) {
+                child = new Node<>();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = key;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> Node<V>[] newArray(int length) {
+            return (Node<V>[]) new Node<?>[length];
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.itg.scan;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the scans of each direction on a dedicated thread with an interval that follows the traffic.
+ * <p>
+ * Every lane schedules its next run only after the current one finished, so scans of the same lane never overlap.
+ * A scan that found files halves the interval down to the minimum of the cadence, an idle scan doubles it up to
+ * the maximum. Lanes adapt independently, a busy direction does not speed up an idle one.
+ */
+public class AdaptiveScanScheduler {
+
+    static Logger logger = Logger.getLogger("BankMessageMover");
+
+    /**
+     * One scan of a lane.
+     */
+    @FunctionalInterface
+    public interface ScanTask {
+
+        /**
+         * @return Number of files found, 0 if the direction was idle
+         */
+        int scan() throws Exception;
+    }
+
+    private final ScheduledExecutorService executor;
+    private final List<Lane> lanes = new CopyOnWriteArrayList<>();
+    private volatile boolean stopped;
+
+    /**
+     * @param name      Prefix of the thread names
+     * @param laneCount Number of lanes, one thread is kept per lane
+     */
+    public AdaptiveScanScheduler(String name, int laneCount) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(Math.max(1, laneCount), runnable -> {
+            Thread thread = new Thread(runnable, name + "-scan-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.setRemoveOnCancelPolicy(true);
+        pool.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.executor = pool;
+    }
+
+    /**
+     * Adds a lane and runs its first scan right away.
+     *
+     * @param name    Name of the lane, used in log messages
+     * @param cadence Interval bounds of the lane
+     * @param task    Scan of the lane
+     */
+    public void schedule(String name, ScanCadence cadence, ScanTask task) {
+        Lane lane = new Lane(name, cadence, task);
+        lanes.add(lane);
+        lane.scheduleNext(0);
+    }
+
+    /**
+     * @param name Name of the lane
+     * @return Current interval of the lane in milliseconds, -1 if there is no such lane
+     */
+    public long getIntervalMillis(String name) {
+        for (Lane lane : lanes) {
+            if (lane.name.equals(name)) {
+                return lane.intervalMillis;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stops scheduling and waits for running scans.
+     */
+    public void shutdown() {
+        stopped = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class Lane implements Runnable {
+
+        private final String name;
+        private final ScanCadence cadence;
+        private final ScanTask task;
+        private volatile long intervalMillis;
+
+        private Lane(String name, ScanCadence cadence, ScanTask task) {
+            this.name = name;
+            this.cadence = cadence;
+            this.task = task;
+            this.intervalMillis = cadence.getInitialMillis();
+        }
+
+        @Override
+        public void run() {
+            int found = 0;
+            try {
+                found = task.scan();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception | Error e) {
+                logger.log(Level.SEVERE, "Error during file scanning and copying (" + name + ").", e);
+            }
+            long next = found > 0
+                    ? Math.max(cadence.getMinMillis(), intervalMillis / 2)
+                    : Math.min(cadence.getMaxMillis(), intervalMillis * 2);
+            if (next != intervalMillis) {
+                logger.log(Level.FINE, "Scan interval of " + name + " is now " + next + " ms.");
+            }
+            intervalMillis = next;
+            scheduleNext(next);
+        }
+
+        private void scheduleNext(long delayMillis) {
+            if (stopped) {
+                return;
+            }
+            try {
+                executor.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shut down in the meantime
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.itg.scan;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * WatchService backed change feed for a directory tree.
+ * Every directory accepted by the directory filter is registered, directories created later are
+ * registered as they appear, and created or modified files are queued as transfer candidates.
+ * <p>
+ * The feed does not replace the tree walk completely: when the watch service overflows, a
+ * registration fails or the reconciliation interval elapses, {@link #isFullScanDue()} asks the
+ * caller for a full walk.
+ */
+public class FileChangeFeed implements Closeable {
+
+    static Logger logger = Logger.getLogger("BankMessageMover");
+
+    private final Path root;
+    private final Predicate<Path> directoryFilter;
+    private final long reconciliationIntervalMillis;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Set<Path> candidates = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean fullScanRequested = new AtomicBoolean(true);
+
+    private volatile long lastFullScanMillis;
+    private volatile boolean closed;
+    private Thread eventThread;
+
+    /**
+     * @param root                         Root of the watched tree
+     * @param directoryFilter              Returns false for directories whose subtree is not scanned
+     * @param reconciliationIntervalMillis Maximum time between two full walks
+     */
+    public FileChangeFeed(Path root, Predicate<Path> directoryFilter, long reconciliationIntervalMillis) throws IOException {
+        this.root = root;
+        this.directoryFilter = directoryFilter;
+        this.reconciliationIntervalMillis = reconciliationIntervalMillis;
+        this.watcher = root.getFileSystem().newWatchService();
+    }
+
+    /**
+     * Registers the whole tree and starts the event thread.
+     */
+    public void start() throws IOException {
+        registerAll(root, false);
+        eventThread = new Thread(this::processEvents, "change-feed-" + root.getFileName());
+        eventThread.setDaemon(true);
+        eventThread.start();
+    }
+
+    /**
+     * @return True if the caller should walk the whole tree instead of draining the candidates
+     */
+    public boolean isFullScanDue() {
+        return closed
+                || fullScanRequested.get()
+                || System.currentTimeMillis() - lastFullScanMillis >= reconciliationIntervalMillis;
+    }
+
+    /**
+     * Marks the start of a full walk. Candidates queued so far are dropped because the walk visits them anyway.
+     */
+    public void beginFullScan() {
+        fullScanRequested.set(false);
+        candidates.clear();
+        lastFullScanMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Removes and returns all queued candidates.
+     *
+     * @return Files created or modified since the last drain
+     */
+    public List<Path> drainCandidates() {
+        List<Path> drained = new ArrayList<>();
+        Iterator<Path> iterator = candidates.iterator();
+        while (iterator.hasNext()) {
+            drained.add(iterator.next());
+            iterator.remove();
+        }
+        return drained;
+    }
+
+    /**
+     * Puts a file back into the queue, e.g. when it is not old enough to be transferred yet.
+     *
+     * @param file File to look at again on the next drain
+     */
+    public void requeue(Path file) {
+        candidates.add(file);
+    }
+
+    /**
+     * @return Number of files queued for the next drain
+     */
+    public int getCandidateCount() {
+        return candidates.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watcher.close();
+        if (eventThread != null) {
+            eventThread.interrupt();
+        }
+    }
+
+    private void registerAll(Path start, boolean queueFiles) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(root) && !directoryFilter.test(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                keys.put(dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                // Files written into a new directory before it was registered produce no event
+                if (queueFiles) {
+                    candidates.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                logger.log(Level.WARNING, "Unable to watch: " + file, e);
+                fullScanRequested.set(true);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void processEvents() {
+        while (!closed) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path dir = keys.get(key);
+            if (dir == null) {
+                key.cancel();
+                continue;
+            }
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    logger.log(Level.WARNING, "Change feed overflow, next scan of " + root + " walks the whole tree.");
+                    fullScanRequested.set(true);
+                    continue;
+                }
+
+                Path child = dir.resolve((Path) event.context());
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    if (event.kind() == ENTRY_CREATE && directoryFilter.test(child)) {
+                        try {
+                            registerAll(child, true);
+                        } catch (IOException e) {
+                            logger.log(Level.WARNING, "Unable to watch new directory: " + child, e);
+                            fullScanRequested.set(true);
+                        }
+                    }
+                } else {
+                    candidates.add(child);
+                }
+            }
+
+            if (!key.reset()) {
+                keys.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.itg.scan;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Walks a directory tree on a {@link ForkJoinPool}, one task per directory.
+ * <p>
+ * Every subdirectory accepted by the directory filter is forked as soon as it is found, idle threads steal the
+ * forked directories, so the listing latency of a network share overlaps across directories instead of adding up.
+ * The parallelism caps the number of directories read at once. Files are handed to the visitor on the thread that
+ * listed their directory, the visitor has to be thread safe.
+ */
+public class ParallelTreeWalker {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    /**
+     * Receives the files found by a walk.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+
+        /**
+         * @param file  File found
+         * @param attrs Attributes of the file, links are not followed
+         */
+        void visitFile(Path file, BasicFileAttributes attrs) throws IOException;
+    }
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param name        Prefix of the thread names
+     * @param parallelism Maximum number of directories read at the same time
+     */
+    public ParallelTreeWalker(String name, int parallelism) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = new ForkJoinPool(Math.max(1, parallelism), forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName(name + "-walk-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Walks the tree below the root and waits until every accepted directory was read.
+     * A directory that cannot be read does not stop the walk of the others.
+     *
+     * @param root            Directory to walk, it is always read
+     * @param directoryFilter Returns false for directories whose subtree is skipped
+     * @param visitor         Receives every file
+     * @throws IOException The first failure of a directory or the visitor, after the walk finished
+     */
+    public void walk(Path root, Predicate<Path> directoryFilter, Visitor visitor) throws IOException, InterruptedException {
+        Walk walk = new Walk(directoryFilter, visitor);
+        ForkJoinTask<Void> task = pool.submit(walk.new DirectoryTask(root));
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            walk.fail(new InterruptedIOException("Interrupted while walking " + root));
+            task.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IOException("Walk of " + root + " failed.", e.getCause());
+        }
+        IOException failure = walk.failure.get();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return Maximum number of directories read at the same time
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Stops the threads, a running walk is abandoned.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Opens a directory for reading, the benchmarks add latency here.
+     *
+     * @param dir Directory to read
+     * @return Entries of the directory
+     */
+    protected DirectoryStream<Path> openDirectory(Path dir) throws IOException {
+        return Files.newDirectoryStream(dir);
+    }
+
+    private class Walk {
+        private final Predicate<Path> directoryFilter;
+        private final Visitor visitor;
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        private Walk(Predicate<Path> directoryFilter, Visitor visitor) {
+            this.directoryFilter = directoryFilter;
+            this.visitor = visitor;
+        }
+
+        private void fail(IOException e) {
+            if (!failure.compareAndSet(null, e)) {
+                failure.get().addSuppressed(e);
+            }
+        }
+
+        private boolean isInterrupted() {
+            return failure.get() instanceof InterruptedIOException;
+        }
+
+        private class DirectoryTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final Path dir;
+
+            private DirectoryTask(Path dir) {
+                this.dir = dir;
+            }
+
+            @Override
+            protected void compute() {
+                List<DirectoryTask> subdirectories = new ArrayList<>();
+                try (DirectoryStream<Path> entries = openDirectory(dir)) {
+                    for (Path entry : entries) {
+                        if (isInterrupted()) {
+                            break;
+                        }
+                        BasicFileAttributes attrs;
+                        try {
+                            attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        } catch (NoSuchFileException e) {
+                            // Moved away since the directory was read
+                            continue;
+                        }
+                        if (!attrs.isDirectory()) {
+                            visitor.visitFile(entry, attrs);
+                        } else if (directoryFilter.test(entry)) {
+                            DirectoryTask subdirectory = new DirectoryTask(entry);
+                            subdirectory.fork();
+                            subdirectories.add(subdirectory);
+                        }
+                    }
+                } catch (IOException e) {
+                    fail(e);
+                } catch (RuntimeException e) {
+                    fail(new IOException("Unable to walk " + dir, e));
+                }
+                for (DirectoryTask subdirectory : subdirectories) {
+                    subdirectory.join();
+                }
+            }
+        }
+    }
+}
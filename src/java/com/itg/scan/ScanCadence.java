@@ -0,0 +1,36 @@
+package com.itg.scan;
+
+import lombok.Data;
+
+/**
+ * Bounds of the interval between two scans of one direction.
+ */
+@Data
+public class ScanCadence {
+
+    /**
+     * Shortest interval, reached while files keep arriving.
+     */
+    private final long minMillis;
+    /**
+     * Interval before the first scan found anything.
+     */
+    private final long initialMillis;
+    /**
+     * Longest interval, reached after a long idle period.
+     */
+    private final long maxMillis;
+
+    /**
+     * @param minSeconds     Shortest interval
+     * @param initialSeconds Nominal interval, kept between the bounds
+     * @param maxSeconds     Longest interval
+     * @return Cadence with consistent bounds
+     */
+    public static ScanCadence ofSeconds(long minSeconds, long initialSeconds, long maxSeconds) {
+        long min = Math.max(1, minSeconds) * 1000;
+        long max = Math.max(min, maxSeconds * 1000);
+        long initial = Math.min(max, Math.max(min, initialSeconds * 1000));
+        return new ScanCadence(min, initial, max);
+    }
+}
@@ -0,0 +1,230 @@
+package com.itg.scan;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides whether the writer of a file is done, so the file can be transferred as soon as it is complete.
+ * <p>
+ * A file is complete when its size and modification time did not change for the quiescence period across two
+ * scans that saw the same size and time at least the period apart. A local file whose modification time is older
+ * than the period is complete right away. The modification time of a remote file comes from the server clock, which
+ * may be ahead or behind, so remote files always wait for the second scan. With the lock probe enabled, a local file
+ * must also accept an exclusive lock, which catches writers that keep the file open without writing.
+ * <p>
+ * Folders can use a marker convention instead: a file below such a folder is complete once its marker
+ * {@code <file name><suffix>} exists, regardless of its age. The marker is deleted after the transfer.
+ * <p>
+ * A file stays observed from the scan that first saw it until it is transferred, also while it is queued or
+ * after a failed attempt, which makes the detector the record of the files waiting for a transfer.
+ */
+public class WriteQuiescenceDetector {
+
+    static Logger logger = Logger.getLogger("BankMessageMover");
+
+    public static final long DEFAULT_QUIESCENCE_MILLIS = 3000;
+
+    private final long quiescenceMillis;
+    private final Map<String, Observation> observations = new ConcurrentHashMap<>();
+    private final Map<String, String> markerSuffixes = new ConcurrentHashMap<>();
+    private volatile boolean lockProbe;
+
+    public WriteQuiescenceDetector() {
+        this(DEFAULT_QUIESCENCE_MILLIS);
+    }
+
+    /**
+     * @param quiescenceMillis Time size and modification time have to stay unchanged
+     */
+    public WriteQuiescenceDetector(long quiescenceMillis) {
+        this.quiescenceMillis = Math.max(0, quiescenceMillis);
+    }
+
+    /**
+     * @param lockProbe If true, a local file is only complete if an exclusive lock on it can be taken
+     */
+    public void setLockProbe(boolean lockProbe) {
+        this.lockProbe = lockProbe;
+    }
+
+    /**
+     * Makes the files below a top-level folder wait for their marker instead of the quiescence period.
+     *
+     * @param folder Folder directly below the source directory
+     * @param suffix Suffix appended to the file name to form the marker name, e.g. {@code .done}
+     */
+    public void setMarkerSuffix(String folder, String suffix) {
+        markerSuffixes.put(folder, suffix);
+    }
+
+    /**
+     * @return Time size and modification time have to stay unchanged
+     */
+    public long getQuiescenceMillis() {
+        return quiescenceMillis;
+    }
+
+    /**
+     * Checks whether a local file is complete.
+     *
+     * @param sourceDir Source directory the file was found in
+     * @param file      File to check
+     * @param attrs     Attributes of the file
+     * @return True if the file can be transferred
+     */
+    public boolean isComplete(Path sourceDir, Path file, BasicFileAttributes attrs) {
+        String suffix = markerSuffix(sourceDir, file);
+        if (suffix != null) {
+            observe(file.toString(), attrs.size(), attrs.lastModifiedTime().toMillis());
+            return Files.exists(file.resolveSibling(file.getFileName() + suffix));
+        }
+        if (!isStable(file, attrs)) {
+            return false;
+        }
+        return !lockProbe || isUnlocked(file);
+    }
+
+    /**
+     * Records an observation of a local file and checks whether it has been stable for the quiescence period,
+     * according to its modification time or to the scans.
+     *
+     * @param file  Local file
+     * @param attrs Current attributes of the file
+     * @return True if size and modification time did not change for the quiescence period
+     */
+    public boolean isStable(Path file, BasicFileAttributes attrs) {
+        long modifiedMillis = attrs.lastModifiedTime().toMillis();
+        return isStable(file.toString(), attrs.size(), modifiedMillis)
+                || System.currentTimeMillis() - modifiedMillis >= quiescenceMillis;
+    }
+
+    /**
+     * Records an observation of a file and checks whether the scans saw it unchanged for the quiescence period.
+     * The modification time is only compared, never measured against the local clock, so it may come from a server.
+     *
+     * @param key            Path of the file, local or remote
+     * @param size           Current size
+     * @param modifiedMillis Current modification time
+     * @return True if size and modification time did not change for the quiescence period
+     */
+    public boolean isStable(String key, long size, long modifiedMillis) {
+        Observation observation = observe(key, size, modifiedMillis);
+        return observation.seenNanos - observation.sinceNanos >= TimeUnit.MILLISECONDS.toNanos(quiescenceMillis);
+    }
+
+    /**
+     * @return Epoch millis at which the scans first saw the oldest file not transferred yet, 0 if there is none
+     */
+    public long oldestDetectedMillis() {
+        long oldest = 0;
+        for (Observation observation : observations.values()) {
+            if (oldest == 0 || observation.detectedMillis < oldest) {
+                oldest = observation.detectedMillis;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Forgets a transferred local file and deletes its marker.
+     *
+     * @param sourceDir Source directory the file was found in
+     * @param file      Transferred file
+     */
+    public void transferred(Path sourceDir, Path file) {
+        observations.remove(file.toString());
+        String suffix = markerSuffix(sourceDir, file);
+        if (suffix == null) {
+            return;
+        }
+        Path marker = file.resolveSibling(file.getFileName() + suffix);
+        try {
+            Files.deleteIfExists(marker);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to delete marker: " + marker, e);
+        }
+    }
+
+    /**
+     * Forgets a transferred file.
+     *
+     * @param key Path of the file, local or remote
+     */
+    public void forget(String key) {
+        observations.remove(key);
+    }
+
+    /**
+     * Forgets the files no scan has seen for a while, e.g. because they were deleted by someone else.
+     *
+     * @param maxIdleMillis Time since the last observation after which a file is forgotten
+     */
+    public void pruneUnseen(long maxIdleMillis) {
+        long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(maxIdleMillis);
+        observations.values().removeIf(observation -> observation.seenNanos - cutoff < 0);
+    }
+
+    private Observation observe(String key, long size, long modifiedMillis) {
+        long now = System.nanoTime();
+        return observations.compute(key, (path, previous) -> {
+            if (previous == null) {
+                return new Observation(size, modifiedMillis, now, System.currentTimeMillis());
+            }
+            if (previous.size != size || previous.modifiedMillis != modifiedMillis) {
+                // Still written to, but waiting since it was first seen
+                return new Observation(size, modifiedMillis, now, previous.detectedMillis);
+            }
+            previous.seenNanos = now;
+            return previous;
+        });
+    }
+
+    private String markerSuffix(Path sourceDir, Path file) {
+        if (markerSuffixes.isEmpty() || !file.startsWith(sourceDir)) {
+            return null;
+        }
+        Path relative = sourceDir.relativize(file);
+        return relative.getNameCount() < 2 ? null : markerSuffixes.get(relative.getName(0).toString());
+    }
+
+    private static boolean isUnlocked(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            return lock != null;
+        } catch (AccessDeniedException e) {
+            // Read-only for us, so nobody we share the file with can still be writing it
+            return !Files.isWritable(file);
+        } catch (OverlappingFileLockException | IOException e) {
+            return false;
+        }
+    }
+
+    private static class Observation {
+
+        private final long size;
+        private final long modifiedMillis;
+        private final long sinceNanos;
+        private final long detectedMillis;
+        private volatile long seenNanos;
+
+        private Observation(long size, long modifiedMillis, long sinceNanos, long detectedMillis) {
+            this.size = size;
+            this.modifiedMillis = modifiedMillis;
+            this.sinceNanos = sinceNanos;
+            this.detectedMillis = detectedMillis;
+            this.seenNanos = sinceNanos;
+        }
+    }
+}
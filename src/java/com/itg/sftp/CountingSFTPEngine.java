@@ -0,0 +1,30 @@
+package com.itg.sftp;
+
+import net.schmizz.concurrent.Promise;
+import net.schmizz.sshj.connection.channel.direct.SessionFactory;
+import net.schmizz.sshj.sftp.Request;
+import net.schmizz.sshj.sftp.Response;
+import net.schmizz.sshj.sftp.SFTPEngine;
+import net.schmizz.sshj.sftp.SFTPException;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SFTP engine counting every request sent to the server, including the reads and writes of file transfers.
+ */
+class CountingSFTPEngine extends SFTPEngine {
+
+    private final LongAdder requests;
+
+    CountingSFTPEngine(SessionFactory sessionFactory, LongAdder requests) throws IOException {
+        super(sessionFactory);
+        this.requests = requests;
+    }
+
+    @Override
+    public Promise<Response, SFTPException> request(Request req) throws IOException {
+        requests.increment();
+        return super.request(req);
+    }
+}
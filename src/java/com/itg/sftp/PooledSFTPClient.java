@@ -0,0 +1,32 @@
+package com.itg.sftp;
+
+import net.schmizz.sshj.sftp.SFTPClient;
+
+import java.io.Closeable;
+
+/**
+ * SFTP channel borrowed from a {@link SFTPSessionPool}. Closing it returns the channel to the pool.
+ */
+public class PooledSFTPClient implements Closeable {
+
+    private final SFTPSessionPool pool;
+    private final SFTPClient client;
+    private boolean released;
+
+    PooledSFTPClient(SFTPSessionPool pool, SFTPClient client) {
+        this.pool = pool;
+        this.client = client;
+    }
+
+    public SFTPClient getClient() {
+        return client;
+    }
+
+    @Override
+    public void close() {
+        if (!released) {
+            released = true;
+            pool.release(client);
+        }
+    }
+}
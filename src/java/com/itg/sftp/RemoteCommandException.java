@@ -0,0 +1,35 @@
+package com.itg.sftp;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a command run by {@link SFTPSessionPool#exec} exits with a status other than 0.
+ */
+public class RemoteCommandException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Integer exitStatus;
+    private final String errorOutput;
+
+    public RemoteCommandException(String command, Integer exitStatus, String errorOutput) {
+        super("Remote command exited with status " + exitStatus + ": " + command
+                + (errorOutput.isEmpty() ? "" : " (" + errorOutput + ")"));
+        this.exitStatus = exitStatus;
+        this.errorOutput = errorOutput;
+    }
+
+    /**
+     * @return Exit status of the command, null if the server did not report one
+     */
+    public Integer getExitStatus() {
+        return exitStatus;
+    }
+
+    /**
+     * @return Standard error of the command
+     */
+    public String getErrorOutput() {
+        return errorOutput;
+    }
+}
@@ -0,0 +1,122 @@
+package com.itg.sftp;
+
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.FileMode;
+import net.schmizz.sshj.sftp.RemoteResourceInfo;
+import net.schmizz.sshj.sftp.SFTPClient;
+import net.schmizz.sshj.sftp.SFTPException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remote directories known to exist on the server of one {@link SFTPSessionPool}.
+ * <p>
+ * Filled by {@link #ensureExists(SFTPClient, String)} and by directory listings, so a burst of uploads into
+ * the same folder costs a single metadata round trip. Entries are dropped when the server answers
+ * {@code NO_SUCH_FILE} for a path below them and everything is forgotten when the connection is re-established.
+ */
+public class RemoteDirectoryCache {
+
+    private final Set<String> directories = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates the remote directory and its parents unless they are known to exist.
+     *
+     * @param client    SFTP client
+     * @param directory Remote directory
+     */
+    public void ensureExists(SFTPClient client, String directory) throws IOException {
+        String normalized = normalize(directory);
+        if (normalized.isEmpty() || directories.contains(normalized)) {
+            return;
+        }
+
+        FileAttributes attributes = client.statExistence(normalized);
+        if (attributes == null) {
+            try {
+                client.mkdirs(normalized);
+            } catch (SFTPException e) {
+                // Another worker may have created it in the meantime
+                attributes = client.statExistence(normalized);
+                if (attributes == null) {
+                    throw e;
+                }
+            }
+        }
+        if (attributes != null && attributes.getType() != FileMode.Type.DIRECTORY) {
+            throw new IOException("Remote path exists but is not a directory: " + normalized);
+        }
+        markExists(normalized);
+    }
+
+    /**
+     * Remembers a directory and all of its parents.
+     *
+     * @param directory Remote directory known to exist
+     */
+    public void markExists(String directory) {
+        String normalized = normalize(directory);
+        while (!normalized.isEmpty() && directories.add(normalized)) {
+            int index = normalized.lastIndexOf('/');
+            normalized = index <= 0 ? "" : normalized.substring(0, index);
+        }
+    }
+
+    /**
+     * Remembers a listed directory and the subdirectories it contains.
+     *
+     * @param directory Listed remote directory
+     * @param entries   Entries returned by the listing
+     */
+    public void recordListing(String directory, List<RemoteResourceInfo> entries) {
+        String normalized = normalize(directory);
+        markExists(normalized);
+        for (RemoteResourceInfo entry : entries) {
+            if (entry.isDirectory() && !".".equals(entry.getName()) && !"..".equals(entry.getName())) {
+                directories.add(normalized.isEmpty() ? entry.getName() : normalized + "/" + entry.getName());
+            }
+        }
+    }
+
+    /**
+     * Forgets a directory and everything below it, e.g. after the server reported {@code NO_SUCH_FILE}.
+     *
+     * @param directory Remote directory
+     */
+    public void invalidate(String directory) {
+        String normalized = normalize(directory);
+        String prefix = normalized + "/";
+        directories.removeIf(known -> known.equals(normalized) || known.startsWith(prefix));
+    }
+
+    /**
+     * Forgets every directory.
+     */
+    public void clear() {
+        directories.clear();
+    }
+
+    /**
+     * @param path Remote file path
+     * @return Directory part of the path, empty for a file in the working directory
+     */
+    public static String parentOf(String path) {
+        String normalized = normalize(path);
+        int index = normalized.lastIndexOf('/');
+        return index == -1 ? "" : index == 0 ? "/" : normalized.substring(0, index);
+    }
+
+    private static String normalize(String path) {
+        String normalized = path.replace('\\', '/');
+        while (normalized.contains("//")) {
+            normalized = normalized.replace("//", "/");
+        }
+        if (normalized.length() > 1 && normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+}
@@ -0,0 +1,119 @@
+package com.itg.sftp;
+
+import com.itg.FileHashComparator;
+import com.itg.transfer.CopyResult;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.FileMode;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks a transferred file against its remote counterpart with the configured {@link VerificationStrategy}.
+ * A resumed transfer is always checked by content, its size alone says nothing about the part sent before.
+ * Channels and exec sessions are borrowed from the session pool only for the duration of the check.
+ * <p>
+ * Server side checksums are given up for good once the shell reports that {@code sha256sum} does not exist.
+ * Any other failure to run it falls back to a remote read, and if the command could not be run at all,
+ * checksums are tried again only after a while.
+ */
+public class RemoteFileVerifier {
+
+    static Logger logger = Logger.getLogger("BankMessageMover");
+
+    private static final long CHECKSUM_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final SFTPSessionPool sessionPool;
+    private final VerificationStrategy strategy;
+    private volatile boolean serverChecksumUnavailable;
+    private volatile long serverChecksumRetryMillis;
+
+    public RemoteFileVerifier(SFTPSessionPool sessionPool, VerificationStrategy strategy) {
+        this.sessionPool = sessionPool;
+        this.strategy = strategy;
+    }
+
+    /**
+     * @param localFile      Local file
+     * @param uploaded       Result of the transfer, its digest is used if present
+     * @param remoteFilePath Remote file
+     * @return True if the remote file matches the local file
+     */
+    public boolean verify(Path localFile, CopyResult uploaded, String remoteFilePath) throws IOException, InterruptedException {
+        VerificationStrategy effective = strategy == VerificationStrategy.SIZE && uploaded.getResumedFrom() > 0
+                ? VerificationStrategy.SERVER_CHECKSUM : strategy;
+        switch (effective) {
+            case SIZE:
+                return verifySize(uploaded.getSize(), remoteFilePath);
+            case SERVER_CHECKSUM:
+                if (!serverChecksumUnavailable && System.currentTimeMillis() >= serverChecksumRetryMillis) {
+                    Boolean matches = verifyServerChecksum(localDigest(localFile, uploaded), remoteFilePath);
+                    if (matches != null) {
+                        return matches;
+                    }
+                }
+                return verifyRemoteRead(localDigest(localFile, uploaded), remoteFilePath);
+            case REMOTE_READ:
+            default:
+                return verifyRemoteRead(localDigest(localFile, uploaded), remoteFilePath);
+        }
+    }
+
+    private boolean verifySize(long size, String remoteFilePath) throws IOException, InterruptedException {
+        FileAttributes attributes = sessionPool.execute(client -> client.statExistence(remoteFilePath));
+        return attributes != null
+                && attributes.getType() == FileMode.Type.REGULAR
+                && attributes.getSize() == size;
+    }
+
+    /**
+     * @return Outcome of the check or null if the server cannot compute checksums
+     */
+    private Boolean verifyServerChecksum(byte[] localDigest, String remoteFilePath) throws InterruptedException {
+        String output;
+        try {
+            output = sessionPool.exec("sha256sum -- " + quote(remoteFilePath));
+        } catch (RemoteCommandException e) {
+            if (isCommandMissing(e)) {
+                serverChecksumUnavailable = true;
+                logger.log(Level.WARNING, "Server side checksums are not available, falling back to remote reads.", e);
+            } else {
+                // E.g. the file is missing or not readable, the remote read tells which
+                logger.log(Level.FINE, "Server side checksum failed: " + remoteFilePath, e);
+            }
+            return null;
+        } catch (IOException e) {
+            // Exec refused for this account or the connection failed
+            serverChecksumRetryMillis = System.currentTimeMillis() + CHECKSUM_RETRY_MILLIS;
+            logger.log(Level.WARNING, "Unable to run server side checksums, falling back to remote reads for a while.", e);
+            return null;
+        }
+        String remoteHex = output.trim().split("\\s+", 2)[0];
+        return HexFormat.of().formatHex(localDigest).equalsIgnoreCase(remoteHex);
+    }
+
+    private static boolean isCommandMissing(RemoteCommandException e) {
+        Integer exitStatus = e.getExitStatus();
+        return exitStatus != null && (exitStatus == 126 || exitStatus == 127)
+                || e.getErrorOutput().toLowerCase(Locale.ROOT).contains("not found");
+    }
+
+    private boolean verifyRemoteRead(byte[] localDigest, String remoteFilePath) throws IOException, InterruptedException {
+        byte[] remoteDigest = sessionPool.execute(client -> FileHashComparator.calculateSftpFileHash(remoteFilePath, client));
+        return MessageDigest.isEqual(localDigest, remoteDigest);
+    }
+
+    private static byte[] localDigest(Path localFile, CopyResult uploaded) throws IOException {
+        return uploaded.getDigest() != null ? uploaded.getDigest() : FileHashComparator.calculateFileHash(localFile);
+    }
+
+    private static String quote(String path) {
+        return "'" + path.replace("'", "'\\''") + "'";
+    }
+}
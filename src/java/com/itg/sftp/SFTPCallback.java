@@ -0,0 +1,16 @@
+package com.itg.sftp;
+
+import net.schmizz.sshj.sftp.SFTPClient;
+
+import java.io.IOException;
+
+/**
+ * Work done on a channel borrowed from a {@link SFTPSessionPool}.
+ *
+ * @param <T> Result type
+ */
+@FunctionalInterface
+public interface SFTPCallback<T> {
+
+    T apply(SFTPClient client) throws IOException;
+}
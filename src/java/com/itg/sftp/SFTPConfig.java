@@ -12,4 +12,40 @@ public class SFTPConfig {
     private String userName;
     private String password;
 
+    /**
+     * Seconds between two keep-alive requests on an idle connection.
+     */
+    @Builder.Default
+    private int keepAliveInterval = 30;
+    /**
+     * Maximum number of SFTP channels opened on the connection at once.
+     */
+    @Builder.Default
+    private int maxChannels = 8;
+    /**
+     * How file contents are transferred.
+     */
+    @Builder.Default
+    private SFTPTransferMode transferMode = SFTPTransferMode.PIPELINED;
+    /**
+     * Read-ahead / write-behind window of the pipelined transfer mode.
+     */
+    @Builder.Default
+    private int maxOutstandingRequests = SFTPFileTransferService.DEFAULT_MAX_OUTSTANDING_REQUESTS;
+    /**
+     * Bytes per read or write request of the pipelined transfer mode.
+     */
+    @Builder.Default
+    private int chunkSize = SFTPFileTransferService.DEFAULT_CHUNK_SIZE;
+    /**
+     * Remote directories listed at the same time while the SB directory is crawled.
+     */
+    @Builder.Default
+    private int listingConcurrency = 4;
+    /**
+     * How an uploaded file is checked before the local file is deleted.
+     */
+    @Builder.Default
+    private VerificationStrategy verificationStrategy = VerificationStrategy.SERVER_CHECKSUM;
+
 }
@@ -1,6 +1,8 @@
 package com.itg.sftp;
 
 
+import net.schmizz.keepalive.KeepAliveProvider;
+import net.schmizz.sshj.DefaultConfig;
 import net.schmizz.sshj.SSHClient;
 
 import java.io.IOException;
@@ -10,19 +12,59 @@ public class SFTPConnector {
     private SSHClient sshClient;
 
 
+    /**
+     * Returns the open connection or connects again if there is none or it was lost.
+     * The connection sends keep-alive requests so idle sessions survive between scan cycles.
+     *
+     * @param config SFTP configuration
+     * @return Connected and authenticated client
+     */
     public synchronized SSHClient connect(SFTPConfig config) throws IOException {
-        if (sshClient == null) {
-            sshClient = new SSHClient();
-            sshClient.loadKnownHosts();
-        }
-        if (sshClient.isConnected()) {
+        if (isConnected()) {
             return sshClient;
         }
-        sshClient.connect(config.getHost());
-        sshClient.authPassword(config.getUserName(), config.getPassword());
+        if (sshClient != null) {
+            try {
+                sshClient.disconnect();
+            } catch (IOException ignored) {
+                // The connection is lost anyway
+            }
+            sshClient = null;
+        }
+
+        DefaultConfig clientConfig = new DefaultConfig();
+        clientConfig.setKeepAliveProvider(KeepAliveProvider.KEEP_ALIVE);
+        SSHClient client = new SSHClient(clientConfig);
+        try {
+            open(client, config);
+            client.getConnection().getKeepAlive().setKeepAliveInterval(config.getKeepAliveInterval());
+            client.authPassword(config.getUserName(), config.getPassword());
+        } catch (IOException e) {
+            client.close();
+            throw e;
+        }
+        sshClient = client;
         return sshClient;
     }
 
+    /**
+     * Checks the host against the known hosts of the user and opens the connection.
+     *
+     * @param client Client to connect
+     * @param config SFTP configuration
+     */
+    protected void open(SSHClient client, SFTPConfig config) throws IOException {
+        client.loadKnownHosts();
+        client.connect(config.getHost());
+    }
+
+    /**
+     * @return True if the connection is open and authenticated
+     */
+    public synchronized boolean isConnected() {
+        return sshClient != null && sshClient.isConnected() && sshClient.isAuthenticated();
+    }
+
     public synchronized void disconnect() throws IOException {
         if (sshClient != null) {
             sshClient.disconnect();
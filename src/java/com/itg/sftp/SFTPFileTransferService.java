@@ -0,0 +1,334 @@
+package com.itg.sftp;
+
+import com.itg.FileTransferService;
+import com.itg.transfer.FileEntry;
+import com.itg.transfer.FileListing;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.FileMode;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.RemoteFile;
+import net.schmizz.sshj.sftp.RemoteResourceInfo;
+import net.schmizz.sshj.sftp.Response;
+import net.schmizz.sshj.sftp.SFTPClient;
+import net.schmizz.sshj.sftp.SFTPException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * {@link FileTransferService} on the channels of a {@link SFTPSessionPool}.
+ * <p>
+ * Every call borrows a channel for as long as it needs one: an open file keeps its channel until it is closed,
+ * a listing only holds a channel while it reads one directory. Files are read with read-ahead and written with
+ * write-behind, keeping up to {@code maxOutstandingRequests} requests in flight.
+ * Listings read up to {@code listingConcurrency} sibling directories at the same time, each on its own channel.
+ */
+public class SFTPFileTransferService implements FileTransferService {
+
+    /**
+     * Request window of sshj {@code SFTPClient.put} and {@code get}, used for {@link SFTPTransferMode#CLASSIC}.
+     */
+    public static final int CLASSIC_MAX_OUTSTANDING_REQUESTS = 16;
+    public static final int DEFAULT_MAX_OUTSTANDING_REQUESTS = 64;
+    public static final int DEFAULT_CHUNK_SIZE = 32 * 1024;
+
+    private final SFTPSessionPool sessionPool;
+    private final int maxOutstandingRequests;
+    private final int chunkSize;
+    private final int listingConcurrency;
+    private final ExecutorService listingReaders;
+
+    /**
+     * @param sessionPool            Pool the channels are borrowed from
+     * @param maxOutstandingRequests Number of read or write requests sent before the first answer is awaited
+     * @param chunkSize              Bytes per request, capped to what the server accepts in one packet
+     * @param listingConcurrency     Directories a listing reads at the same time, 1 to read one after another
+     */
+    public SFTPFileTransferService(SFTPSessionPool sessionPool, int maxOutstandingRequests, int chunkSize, int listingConcurrency) {
+        this.sessionPool = sessionPool;
+        this.maxOutstandingRequests = Math.max(1, maxOutstandingRequests);
+        this.chunkSize = Math.max(1024, chunkSize);
+        this.listingConcurrency = Math.max(1, listingConcurrency);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.listingReaders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "sftp-list-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void connect() throws IOException {
+        execute(client -> null);
+    }
+
+    @Override
+    public void disconnect() throws IOException {
+        listingReaders.shutdownNow();
+        sessionPool.close();
+    }
+
+    @Override
+    public FileEntry stat(String path) throws IOException {
+        FileAttributes attributes = execute(client -> client.statExistence(path));
+        return attributes == null ? null : toEntry(path, attributes);
+    }
+
+    @Override
+    public ReadableByteChannel openRead(String path, long offset) throws IOException {
+        PooledSFTPClient channel = borrow();
+        try {
+            RemoteFile remoteFile = channel.getClient().open(path, EnumSet.of(OpenMode.READ));
+            InputStream in = remoteFile.new ReadAheadRemoteFileInputStream(maxOutstandingRequests, offset);
+            return new RemoteReadChannel(channel, remoteFile, in, chunkSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public WritableByteChannel openWrite(String path, long offset) throws IOException {
+        PooledSFTPClient channel = borrow();
+        try {
+            SFTPClient client = channel.getClient();
+            RemoteFile remoteFile = openInDirectory(client, path, offset > 0
+                    ? EnumSet.of(OpenMode.WRITE, OpenMode.CREAT)
+                    : EnumSet.of(OpenMode.WRITE, OpenMode.CREAT, OpenMode.TRUNC));
+            int maxChunk = client.getSFTPEngine().getSubsystem().getRemoteMaxPacketSize() - remoteFile.getOutgoingPacketOverhead();
+            OutputStream out = remoteFile.new RemoteFileOutputStream(offset, maxOutstandingRequests);
+            return new RemoteWriteChannel(channel, remoteFile, out, Math.min(chunkSize, maxChunk));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Renames the file, removing an existing target first on servers that refuse to rename onto it (SFTP version 3).
+     */
+    @Override
+    public void publish(String partialPath, String path) throws IOException {
+        execute(client -> {
+            try {
+                client.rename(partialPath, path);
+            } catch (SFTPException e) {
+                if (client.statExistence(path) == null) {
+                    throw e;
+                }
+                client.rm(path);
+                client.rename(partialPath, path);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public boolean delete(String path) throws IOException {
+        return execute(client -> {
+            try {
+                client.rm(path);
+                return true;
+            } catch (SFTPException e) {
+                if (e.getStatusCode() == Response.StatusCode.NO_SUCH_FILE) {
+                    return false;
+                }
+                throw e;
+            }
+        });
+    }
+
+    @Override
+    public FileListing list(String dir, Predicate<FileEntry> directoryFilter, int batchSize) {
+        return new FileListing(dir, directoryFilter, batchSize, listingReaders, listingConcurrency) {
+            @Override
+            protected Stream<FileEntry> readDirectory(String directory) throws IOException {
+                return listDirectory(directory).stream()
+                        .filter(entry -> !".".equals(entry.getName()) && !"..".equals(entry.getName()))
+                        .map(entry -> toEntry(directory + "/" + entry.getName(), entry.getAttributes()));
+            }
+        };
+    }
+
+    @Override
+    public boolean isRemote() {
+        return true;
+    }
+
+    /**
+     * Lists one remote directory and records it in the directory cache.
+     *
+     * @param directory Remote directory
+     * @return Entries of the directory
+     */
+    public List<RemoteResourceInfo> listDirectory(String directory) throws IOException {
+        RemoteDirectoryCache directoryCache = sessionPool.getDirectoryCache();
+        List<RemoteResourceInfo> entries;
+        try {
+            entries = execute(client -> client.ls(directory));
+        } catch (SFTPException e) {
+            if (e.getStatusCode() == Response.StatusCode.NO_SUCH_FILE) {
+                directoryCache.invalidate(directory);
+            }
+            throw e;
+        }
+        directoryCache.recordListing(directory, entries);
+        return entries;
+    }
+
+    /**
+     * Opens a file in its remote directory, creating the directory unless it is known to exist.
+     * If the server reports the directory missing anyway, it is forgotten, created and the open retried once.
+     */
+    private RemoteFile openInDirectory(SFTPClient client, String path, Set<OpenMode> modes) throws IOException {
+        RemoteDirectoryCache directoryCache = sessionPool.getDirectoryCache();
+        String directory = RemoteDirectoryCache.parentOf(path);
+        directoryCache.ensureExists(client, directory);
+        try {
+            return client.open(path, modes);
+        } catch (SFTPException e) {
+            if (e.getStatusCode() != Response.StatusCode.NO_SUCH_FILE) {
+                throw e;
+            }
+            directoryCache.invalidate(directory);
+            directoryCache.ensureExists(client, directory);
+            return client.open(path, modes);
+        }
+    }
+
+    private <T> T execute(SFTPCallback<T> callback) throws IOException {
+        try {
+            return sessionPool.execute(callback);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an SFTP channel.");
+        }
+    }
+
+    private PooledSFTPClient borrow() throws IOException {
+        try {
+            return sessionPool.borrow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an SFTP channel.");
+        }
+    }
+
+    private static FileEntry toEntry(String path, FileAttributes attributes) {
+        return new FileEntry(path, path.substring(path.lastIndexOf('/') + 1), attributes.getSize(),
+                attributes.getMtime() * 1000, attributes.getType() == FileMode.Type.DIRECTORY);
+    }
+
+    /**
+     * Open remote file together with the channel it was opened on.
+     */
+    private abstract static class RemoteChannel implements Channel {
+        private final PooledSFTPClient channel;
+        private final RemoteFile remoteFile;
+        protected final byte[] chunk;
+        private boolean open = true;
+
+        RemoteChannel(PooledSFTPClient channel, RemoteFile remoteFile, int chunkSize) {
+            this.channel = channel;
+            this.remoteFile = remoteFile;
+            this.chunk = new byte[chunkSize];
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        protected void ensureOpen() throws ClosedChannelException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+        }
+
+        /**
+         * Closes the stream first, a write-behind stream waits for its outstanding acknowledgements there.
+         */
+        protected void close(Closeable stream) throws IOException {
+            if (!open) {
+                return;
+            }
+            open = false;
+            try {
+                stream.close();
+            } finally {
+                try {
+                    remoteFile.close();
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+    }
+
+    private static class RemoteReadChannel extends RemoteChannel implements ReadableByteChannel {
+        private final InputStream in;
+
+        RemoteReadChannel(PooledSFTPClient channel, RemoteFile remoteFile, InputStream in, int chunkSize) {
+            super(channel, remoteFile, chunkSize);
+            this.in = in;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ensureOpen();
+            int read = in.read(chunk, 0, Math.min(chunk.length, dst.remaining()));
+            if (read > 0) {
+                dst.put(chunk, 0, read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            close(in);
+        }
+    }
+
+    private static class RemoteWriteChannel extends RemoteChannel implements WritableByteChannel {
+        private final OutputStream out;
+
+        RemoteWriteChannel(PooledSFTPClient channel, RemoteFile remoteFile, OutputStream out, int chunkSize) {
+            super(channel, remoteFile, chunkSize);
+            this.out = out;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            ensureOpen();
+            int written = 0;
+            while (src.hasRemaining()) {
+                int length = Math.min(chunk.length, src.remaining());
+                src.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+                written += length;
+            }
+            return written;
+        }
+
+        @Override
+        public void close() throws IOException {
+            close(out);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.itg.sftp;
+
+import net.schmizz.sshj.common.IOUtils;
+import net.schmizz.sshj.connection.channel.direct.Session;
+import net.schmizz.sshj.sftp.SFTPClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of SFTP channels on one long-lived, kept-alive SSH connection.
+ * <p>
+ * Each borrower gets a channel of its own, so parallel transfers do not share an SFTP client.
+ * Returned channels stay open for the next cycle. A channel idle for longer than the validation interval
+ * is checked with a realpath round trip before it is handed out, and a lost connection is
+ * re-established lazily by the next borrower.
+ */
+public class SFTPSessionPool implements Closeable {
+
+    static Logger logger = Logger.getLogger("BankMessageMover");
+
+    private static final long VALIDATION_INTERVAL_MILLIS = 30_000;
+    private static final long COMMAND_TIMEOUT_SECONDS = 300;
+
+    private final SFTPConfig config;
+    private final SFTPConnector connector;
+    private final Semaphore permits;
+    private final Deque<IdleChannel> idle = new ArrayDeque<>();
+    private final RemoteDirectoryCache directoryCache = new RemoteDirectoryCache();
+    private final LongAdder requestCount = new LongAdder();
+    private volatile boolean closed;
+
+    public SFTPSessionPool(SFTPConfig config) {
+        this(config, new SFTPConnector());
+    }
+
+    /**
+     * @param config    SFTP configuration
+     * @param connector Opens the connection the channels are created on
+     */
+    public SFTPSessionPool(SFTPConfig config, SFTPConnector connector) {
+        this.config = config;
+        this.connector = connector;
+        // The remote listing reads a directory while workers transfer, both need a channel at the same time
+        this.permits = new Semaphore(Math.max(2, config.getMaxChannels()));
+    }
+
+    /**
+     * Borrows a healthy channel, opening a new one (and reconnecting) if no idle channel is left.
+     * Blocks while the maximum number of channels is in use.
+     *
+     * @return Borrowed channel, close it to return it
+     */
+    public PooledSFTPClient borrow() throws IOException, InterruptedException {
+        if (closed) {
+            throw new IOException("SFTP session pool is closed.");
+        }
+        permits.acquire();
+        try {
+            SFTPClient client = takeHealthyIdle();
+            if (client == null) {
+                if (!connector.isConnected()) {
+                    // The server may have changed while the connection was down
+                    directoryCache.clear();
+                }
+                client = new SFTPClient(new CountingSFTPEngine(connector.connect(config), requestCount).init());
+            }
+            return new PooledSFTPClient(this, client);
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Remote directories known to exist on the server of this pool
+     */
+    public RemoteDirectoryCache getDirectoryCache() {
+        return directoryCache;
+    }
+
+    /**
+     * @return Number of SFTP requests sent on the channels of this pool
+     */
+    public long getRequestCount() {
+        return requestCount.sum();
+    }
+
+    /**
+     * Runs the callback on a borrowed channel and returns the channel afterwards.
+     *
+     * @param callback Work to do on the channel
+     * @return Result of the callback
+     */
+    public <T> T execute(SFTPCallback<T> callback) throws IOException, InterruptedException {
+        try (PooledSFTPClient channel = borrow()) {
+            return callback.apply(channel.getClient());
+        }
+    }
+
+    /**
+     * Runs a command in an exec channel on the pooled connection. The channel counts against the channel limit.
+     *
+     * @param command Command line passed to the remote shell
+     * @return Standard output of the command
+     * @throws RemoteCommandException If the command exits with a status other than 0
+     * @throws IOException              If the command cannot be started
+     */
+    public String exec(String command) throws IOException, InterruptedException {
+        if (closed) {
+            throw new IOException("SFTP session pool is closed.");
+        }
+        permits.acquire();
+        try (Session session = connector.connect(config).startSession()) {
+            Session.Command remoteCommand = session.exec(command);
+            String output = IOUtils.readFully(remoteCommand.getInputStream()).toString(StandardCharsets.UTF_8);
+            String errors = IOUtils.readFully(remoteCommand.getErrorStream()).toString(StandardCharsets.UTF_8);
+            remoteCommand.join(COMMAND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            Integer exitStatus = remoteCommand.getExitStatus();
+            if (exitStatus == null || exitStatus != 0) {
+                throw new RemoteCommandException(command, exitStatus, errors.trim());
+            }
+            return output;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes every channel and the connection.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        synchronized (idle) {
+            while (!idle.isEmpty()) {
+                closeQuietly(idle.pop().client);
+            }
+        }
+        connector.disconnect();
+    }
+
+    void release(SFTPClient client) {
+        try {
+            if (closed || !isOpen(client)) {
+                closeQuietly(client);
+                return;
+            }
+            synchronized (idle) {
+                idle.push(new IdleChannel(client, System.currentTimeMillis()));
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private SFTPClient takeHealthyIdle() {
+        while (true) {
+            IdleChannel channel;
+            synchronized (idle) {
+                channel = idle.poll();
+            }
+            if (channel == null) {
+                return null;
+            }
+            if (isHealthy(channel)) {
+                return channel.client;
+            }
+            closeQuietly(channel.client);
+        }
+    }
+
+    private boolean isHealthy(IdleChannel channel) {
+        if (!connector.isConnected() || !isOpen(channel.client)) {
+            return false;
+        }
+        if (System.currentTimeMillis() - channel.idleSince < VALIDATION_INTERVAL_MILLIS) {
+            return true;
+        }
+        try {
+            channel.client.canonicalize(".");
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Dropping stale SFTP channel.", e);
+            return false;
+        }
+    }
+
+    private static boolean isOpen(SFTPClient client) {
+        return client.getSFTPEngine().getSubsystem().isOpen();
+    }
+
+    private static void closeQuietly(SFTPClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Unable to close SFTP channel.", e);
+        }
+    }
+
+    private static class IdleChannel {
+        private final SFTPClient client;
+        private final long idleSince;
+
+        private IdleChannel(SFTPClient client, long idleSince) {
+            this.client = client;
+            this.idleSince = idleSince;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.itg.sftp;
+
+/**
+ * How file contents are moved over SFTP.
+ */
+public enum SFTPTransferMode {
+    /**
+     * Fixed window of 16 requests, as sshj {@code SFTPClient.put} and {@code get} use.
+     */
+    CLASSIC,
+    /**
+     * The configured request window and chunk size, see {@link SFTPFileTransferService}.
+     */
+    PIPELINED
+}
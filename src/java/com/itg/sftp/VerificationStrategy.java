@@ -0,0 +1,20 @@
+package com.itg.sftp;
+
+/**
+ * How an uploaded file is checked before the local copy is deleted.
+ */
+public enum VerificationStrategy {
+    /**
+     * The remote file has to be a regular file of the uploaded size. Costs one stat.
+     */
+    SIZE,
+    /**
+     * The server computes {@code sha256sum} in an exec channel. Falls back to {@link #REMOTE_READ}
+     * if the server does not allow commands, e.g. on SFTP-only accounts.
+     */
+    SERVER_CHECKSUM,
+    /**
+     * The remote file is read back and hashed with a bounded buffer.
+     */
+    REMOTE_READ
+}
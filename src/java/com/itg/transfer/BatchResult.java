@@ -0,0 +1,17 @@
+package com.itg.transfer;
+
+import lombok.Data;
+
+/**
+ * Outcome of all work items submitted to one {@link TransferWorkerPool.Batch}.
+ */
+@Data
+public class BatchResult {
+
+    private final long succeeded;
+    private final long failed;
+
+    public long getTotal() {
+        return succeeded + failed;
+    }
+}
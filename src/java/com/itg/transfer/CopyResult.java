@@ -0,0 +1,32 @@
+package com.itg.transfer;
+
+import lombok.Data;
+
+/**
+ * Outcome of a copy made by a {@link TransferPipeline}.
+ */
+@Data
+public class CopyResult {
+
+    /**
+     * Number of bytes written to the destination.
+     */
+    private final long size;
+    /**
+     * SHA-256 digest of the bytes read from the source.
+     */
+    private final byte[] digest;
+    /**
+     * True if the destination matches the source.
+     */
+    private final boolean verified;
+    /**
+     * Time spent verifying the destination in nanoseconds, 0 if it was not measured.
+     */
+    private long verificationNanos;
+    /**
+     * Offset the copy was resumed from, 0 if it started at the beginning. The digest always covers the whole file.
+     */
+    private long resumedFrom;
+
+}
@@ -0,0 +1,16 @@
+package com.itg.transfer;
+
+/**
+ * Threads the transfers of a {@link TransferWorkerPool} run on.
+ */
+public enum ExecutionMode {
+    /**
+     * Fixed number of platform worker threads.
+     */
+    PLATFORM,
+    /**
+     * One virtual thread per transfer, concurrency is capped by the per-destination limits and
+     * the pool capacity. Falls back to {@link #PLATFORM} on a runtime without virtual threads.
+     */
+    VIRTUAL
+}
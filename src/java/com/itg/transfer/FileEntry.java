@@ -0,0 +1,26 @@
+package com.itg.transfer;
+
+import lombok.Data;
+
+/**
+ * File or directory returned by a {@link com.itg.FileTransferService}.
+ */
+@Data
+public class FileEntry {
+
+    /**
+     * Path in the notation of the file system the entry belongs to.
+     */
+    private final String path;
+    /**
+     * Name without directory.
+     */
+    private final String name;
+    private final long size;
+    /**
+     * Modification time in milliseconds, remote file systems report whole seconds.
+     */
+    private final long modifiedMillis;
+    private final boolean directory;
+
+}
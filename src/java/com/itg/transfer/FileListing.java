@@ -0,0 +1,273 @@
+package com.itg.transfer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Depth-first listing of the files below a directory, returned in batches.
+ * A directory is only read when the previous batches are consumed, so a caller can start working on the first
+ * files while the rest of the tree is still unknown.
+ * <p>
+ * With a reader executor the listing crawls instead: up to {@code concurrency} directories are read at the same
+ * time and their files are handed over as they arrive, so sibling directories no longer cost one round trip
+ * after another. The crawl stays ahead of the caller by at most {@code concurrency} batches.
+ */
+public abstract class FileListing implements Closeable {
+
+    private static final FileEntry END = new FileEntry("", "", 0, 0, false);
+
+    private final Predicate<FileEntry> directoryFilter;
+    private final int batchSize;
+    private final Deque<String> pending = new ArrayDeque<>();
+    private final Crawl crawl;
+    private Stream<FileEntry> current;
+    private Iterator<FileEntry> entries;
+
+    /**
+     * @param root            Directory to list
+     * @param directoryFilter Returns false for directories whose subtree is not listed
+     * @param batchSize       Maximum number of files per batch
+     */
+    protected FileListing(String root, Predicate<FileEntry> directoryFilter, int batchSize) {
+        this(root, directoryFilter, batchSize, null, 1);
+    }
+
+    /**
+     * @param root            Directory to list
+     * @param directoryFilter Returns false for directories whose subtree is not listed
+     * @param batchSize       Maximum number of files per batch
+     * @param readers         Executor the directories are read on, null to read them on the caller
+     * @param concurrency     Maximum number of directories read at the same time
+     */
+    protected FileListing(String root, Predicate<FileEntry> directoryFilter, int batchSize, Executor readers, int concurrency) {
+        this.directoryFilter = directoryFilter;
+        this.batchSize = Math.max(1, batchSize);
+        pending.push(root);
+        this.crawl = readers != null && concurrency > 1 ? new Crawl(readers, concurrency) : null;
+    }
+
+    /**
+     * Reads the next files, opening further directories as needed.
+     *
+     * @return Up to the batch size of files, empty once the listing is exhausted
+     */
+    public List<FileEntry> nextBatch() throws IOException {
+        if (crawl != null) {
+            return crawl.nextBatch();
+        }
+        List<FileEntry> batch = new ArrayList<>(batchSize);
+        try {
+            fill(batch);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return batch;
+    }
+
+    private void fill(List<FileEntry> batch) throws IOException {
+        while (batch.size() < batchSize) {
+            if (entries == null || !entries.hasNext()) {
+                closeCurrent();
+                String dir = pending.poll();
+                if (dir == null) {
+                    break;
+                }
+                current = readDirectory(dir);
+                entries = current.iterator();
+                continue;
+            }
+            FileEntry entry = entries.next();
+            if (!entry.isDirectory()) {
+                batch.add(entry);
+            } else if (directoryFilter.test(entry)) {
+                pending.push(entry.getPath());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (crawl != null) {
+            crawl.close();
+            return;
+        }
+        closeCurrent();
+        pending.clear();
+    }
+
+    /**
+     * @param dir Directory to read
+     * @return Entries directly inside the directory, without the directory itself and its parent
+     */
+    protected abstract Stream<FileEntry> readDirectory(String dir) throws IOException;
+
+    private void closeCurrent() {
+        if (current != null) {
+            current.close();
+            current = null;
+            entries = null;
+        }
+    }
+
+    /**
+     * Concurrent reading of the pending directories. Files are passed to the caller through a bounded queue,
+     * the end of the crawl is marked by {@link #END}. A directory that cannot be read stops the crawl,
+     * its failure is thrown once the files read before are consumed.
+     */
+    private class Crawl {
+        private final Executor readers;
+        private final int concurrency;
+        private final BlockingQueue<FileEntry> files;
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+        private int running;
+        private boolean ended;
+        private boolean exhausted;
+        private volatile boolean closed;
+
+        private Crawl(Executor readers, int concurrency) {
+            this.readers = readers;
+            this.concurrency = concurrency;
+            this.files = new ArrayBlockingQueue<>(batchSize * concurrency);
+        }
+
+        private List<FileEntry> nextBatch() throws IOException {
+            List<FileEntry> batch = new ArrayList<>(batchSize);
+            if (!exhausted) {
+                start(null);
+                try {
+                    for (FileEntry entry = files.take(); entry != null; entry = files.poll()) {
+                        if (entry == END) {
+                            exhausted = true;
+                            break;
+                        }
+                        batch.add(entry);
+                        if (batch.size() == batchSize) {
+                            break;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the listing.");
+                }
+            }
+            IOException e = failure.get();
+            if (exhausted && batch.isEmpty() && e != null) {
+                throw e;
+            }
+            return batch;
+        }
+
+        private void read(String dir) {
+            List<String> directories = new ArrayList<>();
+            List<FileEntry> found = new ArrayList<>();
+            try (Stream<FileEntry> stream = readDirectory(dir)) {
+                stream.forEach(entry -> {
+                    if (!entry.isDirectory()) {
+                        found.add(entry);
+                    } else if (directoryFilter.test(entry)) {
+                        directories.add(entry.getPath());
+                    }
+                });
+                // Siblings start before the files are handed over, the caller may still be busy with earlier batches
+                start(directories);
+                for (FileEntry entry : found) {
+                    if (!offer(entry)) {
+                        break;
+                    }
+                }
+            } catch (UncheckedIOException e) {
+                fail(e.getCause());
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new IOException("Unable to list " + dir, e));
+            } finally {
+                finish();
+            }
+        }
+
+        /**
+         * Queues directories and starts reads, ends the crawl when nothing is left to read.
+         */
+        private void start(List<String> directories) {
+            if (schedule(directories)) {
+                offer(END);
+            }
+        }
+
+        /**
+         * Adds directories to the pending ones and starts reads while there are free slots.
+         *
+         * @return True if the crawl just ended and the caller has to mark the end
+         */
+        private synchronized boolean schedule(List<String> directories) {
+            if (directories != null) {
+                directories.forEach(pending::push);
+            }
+            while (running < concurrency && !pending.isEmpty() && failure.get() == null && !closed) {
+                String dir = pending.pop();
+                running++;
+                try {
+                    readers.execute(() -> read(dir));
+                } catch (RejectedExecutionException e) {
+                    running--;
+                    fail(new IOException("Unable to list " + dir, e));
+                }
+            }
+            if (running > 0 || ended) {
+                return false;
+            }
+            ended = true;
+            return true;
+        }
+
+        private void finish() {
+            synchronized (this) {
+                running--;
+            }
+            start(null);
+        }
+
+        private boolean offer(FileEntry entry) {
+            try {
+                while (!closed) {
+                    if (files.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        private void fail(IOException e) {
+            if (!failure.compareAndSet(null, e)) {
+                failure.get().addSuppressed(e);
+            }
+        }
+
+        private void close() {
+            closed = true;
+            synchronized (this) {
+                pending.clear();
+            }
+            files.clear();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.itg.transfer;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Names of the hidden files a transfer writes to before the result is moved to its final name.
+ * A partial file of {@code name} is {@code .name.part} in the same directory, so a retry finds it again and
+ * the final rename never crosses a file system. Consumers only ever see complete, verified files.
+ */
+public final class PartialFiles {
+
+    /**
+     * Time without a write after which a partial file counts as abandoned instead of waiting for its retry.
+     */
+    public static final long RETENTION_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    private static final String PREFIX = ".";
+    private static final String SUFFIX = ".part";
+
+    private PartialFiles() {
+    }
+
+    /**
+     * @param file Final local file
+     * @return Partial file next to it
+     */
+    public static Path partialPath(Path file) {
+        return file.resolveSibling(PREFIX + file.getFileName() + SUFFIX);
+    }
+
+    /**
+     * @param remotePath Final remote path, separated by {@code /}
+     * @return Partial remote path next to it
+     */
+    public static String partialPath(String remotePath) {
+        int index = remotePath.lastIndexOf('/');
+        return remotePath.substring(0, index + 1) + PREFIX + remotePath.substring(index + 1) + SUFFIX;
+    }
+
+    /**
+     * @param fileName File name without directory
+     * @return True if the name is the one of a partial file
+     */
+    public static boolean isPartial(String fileName) {
+        return fileName.startsWith(PREFIX) && fileName.endsWith(SUFFIX) && fileName.length() > PREFIX.length() + SUFFIX.length();
+    }
+
+    /**
+     * Moves a complete partial file to its final name in one step, replacing an existing file.
+     *
+     * @param partialFile Partial file
+     * @param file        Final file in the same directory
+     */
+    public static void publish(Path partialFile, Path file) throws IOException {
+        try {
+            Files.move(partialFile, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partialFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes a partial file that was not written to for the retention time.
+     *
+     * @param file  Partial file
+     * @param attrs Attributes of the file
+     * @return True if the file was deleted
+     */
+    public static boolean deleteIfStale(Path file, BasicFileAttributes attrs) throws IOException {
+        return System.currentTimeMillis() - attrs.lastModifiedTime().toMillis() >= RETENTION_MILLIS
+                && Files.deleteIfExists(file);
+    }
+
+    /**
+     * Deletes the partial files below a directory that were not written to for the given time.
+     *
+     * @param dir          Directory to walk, nothing happens if it does not exist
+     * @param maxAgeMillis Time since the last write after which a partial file counts as abandoned
+     * @return Number of deleted files
+     */
+    public static int deleteStale(Path dir, long maxAgeMillis) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        AtomicInteger deleted = new AtomicInteger();
+        Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (isPartial(file.getFileName().toString()) && attrs.lastModifiedTime().toMillis() < cutoff
+                        && Files.deleteIfExists(file)) {
+                    deleted.incrementAndGet();
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return deleted.get();
+    }
+}
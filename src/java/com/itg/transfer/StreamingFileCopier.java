@@ -0,0 +1,65 @@
+package com.itg.transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Streams files through a fixed-size direct buffer to compute their SHA-256 digest. Heap use does not depend on
+ * the file size. Copies themselves go through a {@link TransferPipeline}, which shares the digest algorithm and the
+ * buffer size with this class.
+ */
+public class StreamingFileCopier {
+
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    public StreamingFileCopier() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize Size of the read buffer, one buffer is kept per thread
+     */
+    public StreamingFileCopier(int bufferSize) {
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    /**
+     * Computes the SHA-256 digest of a file through the copy buffer.
+     *
+     * @param file File to hash
+     * @return Digest of the file content
+     */
+    public byte[] digest(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = buffers.get();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @return New SHA-256 message digest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.itg.transfer;
+
+import com.itg.FileTransferService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transfer stage shared by every mover: streams a file from one {@link FileTransferService} into the partial file
+ * of its destination on another, hashing the bytes on the way.
+ * <p>
+ * A partial file left by an interrupted transfer is continued if it is not larger than the source and was written
+ * after the source last changed. The bytes written before are hashed from the local side, so the digest covers the
+ * whole file without sending the beginning over the network again. The caller verifies the partial file and then
+ * publishes it under its final name.
+ * <p>
+ * A file with more than one destination is {@link #fanOut fanned out}: it is read once and every buffer is written to
+ * all destinations.
+ */
+public class TransferPipeline {
+
+    public static final int DEFAULT_BUFFER_SIZE = StreamingFileCopier.DEFAULT_BUFFER_SIZE;
+
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    public TransferPipeline() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize Size of the transfer buffer, one buffer is kept per thread
+     */
+    public TransferPipeline(int bufferSize) {
+        this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    /**
+     * Copies a file into a partial file, continuing a partial file left by an earlier attempt.
+     * The result is verified if the source did not change during the copy and the partial file has the source size.
+     *
+     * @param source      File system of the source
+     * @param sourcePath  Source file
+     * @param destination File system of the destination
+     * @param partialPath Partial file of the destination
+     * @return Size, digest of the whole file, size check outcome and the offset the copy resumed from
+     */
+    public CopyResult copy(FileTransferService source, String sourcePath, FileTransferService destination,
+                           String partialPath) throws IOException {
+        FileEntry before = source.stat(sourcePath);
+        if (before == null) {
+            throw new NoSuchFileException(sourcePath);
+        }
+        long offset = resumeOffset(before, destination.stat(partialPath));
+        MessageDigest digest = StreamingFileCopier.newDigest();
+        ByteBuffer buffer = buffers.get();
+        long size = 0;
+
+        if (offset > 0) {
+            // Hash the part already transferred where reading it is cheap
+            FileTransferService prefixSide = source.isRemote() ? destination : source;
+            String prefixPath = source.isRemote() ? partialPath : sourcePath;
+            try (ReadableByteChannel prefix = prefixSide.openRead(prefixPath, 0)) {
+                size = digest(prefix, digest, buffer, offset);
+            }
+            if (size < offset) {
+                offset = 0;
+                size = 0;
+                digest.reset();
+            }
+        }
+
+        try (ReadableByteChannel in = source.openRead(sourcePath, offset);
+             WritableByteChannel out = destination.openWrite(partialPath, offset)) {
+            buffer.clear();
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    size += out.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+
+        FileEntry after = source.stat(sourcePath);
+        FileEntry written = destination.stat(partialPath);
+        boolean verified = after != null && written != null
+                && before.getSize() == after.getSize()
+                && before.getModifiedMillis() == after.getModifiedMillis()
+                && after.getSize() == size
+                && written.getSize() == size;
+        CopyResult result = new CopyResult(size, digest.digest(), verified);
+        result.setResumedFrom(offset);
+        return result;
+    }
+
+    /**
+     * Copies a file into the partial files of several destinations, reading the source once.
+     * The buffers are written to the destinations one after another on the calling thread, a remote destination keeps
+     * its write-behind window in flight meanwhile. Every destination gets its own result, verified if the source did
+     * not change during the copy and the partial file has the source size. A fan-out always starts over, partial files
+     * left by an earlier attempt are overwritten.
+     *
+     * @param source     File system of the source
+     * @param sourcePath Source file
+     * @param sinks      Partial files of the destinations
+     * @return One result per sink, in the order of the sinks, all with the digest of the whole file
+     */
+    public List<CopyResult> fanOut(FileTransferService source, String sourcePath, List<TransferSink> sinks) throws IOException {
+        FileEntry before = source.stat(sourcePath);
+        if (before == null) {
+            throw new NoSuchFileException(sourcePath);
+        }
+        MessageDigest digest = StreamingFileCopier.newDigest();
+        ByteBuffer buffer = buffers.get();
+        long size = 0;
+
+        List<WritableByteChannel> outs = new ArrayList<>(sinks.size());
+        try (ReadableByteChannel in = source.openRead(sourcePath, 0)) {
+            for (TransferSink sink : sinks) {
+                outs.add(sink.getService().openWrite(sink.getPartialPath(), 0));
+            }
+            buffer.clear();
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                for (WritableByteChannel out : outs) {
+                    ByteBuffer view = buffer.duplicate();
+                    while (view.hasRemaining()) {
+                        out.write(view);
+                    }
+                }
+                size += buffer.remaining();
+                buffer.clear();
+            }
+        } catch (IOException | RuntimeException e) {
+            for (WritableByteChannel out : outs) {
+                try {
+                    out.close();
+                } catch (IOException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+            }
+            throw e;
+        }
+        // Closing waits for the outstanding writes, a failure here fails the fan-out
+        IOException closeFailure = null;
+        for (WritableByteChannel out : outs) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (closeFailure == null) {
+                    closeFailure = e;
+                } else {
+                    closeFailure.addSuppressed(e);
+                }
+            }
+        }
+        if (closeFailure != null) {
+            throw closeFailure;
+        }
+
+        FileEntry after = source.stat(sourcePath);
+        boolean unchanged = after != null
+                && before.getSize() == after.getSize()
+                && before.getModifiedMillis() == after.getModifiedMillis()
+                && after.getSize() == size;
+        byte[] hash = digest.digest();
+        List<CopyResult> results = new ArrayList<>(sinks.size());
+        for (TransferSink sink : sinks) {
+            FileEntry written = sink.getService().stat(sink.getPartialPath());
+            results.add(new CopyResult(size, hash, unchanged && written != null && written.getSize() == size));
+        }
+        return results;
+    }
+
+    /**
+     * Reads a file back and compares it with the digest of a copy.
+     *
+     * @param service File system of the file
+     * @param path    File to read
+     * @param copied  Result of the copy
+     * @return True if the file has the digest of the copy, measured time is stored in the result
+     */
+    public boolean matches(FileTransferService service, String path, CopyResult copied) throws IOException {
+        long verificationStart = System.nanoTime();
+        boolean matches = MessageDigest.isEqual(copied.getDigest(), digest(service, path));
+        copied.setVerificationNanos(System.nanoTime() - verificationStart);
+        return matches;
+    }
+
+    /**
+     * @param service File system of the file
+     * @param path    File to hash
+     * @return SHA-256 digest of the file
+     */
+    public byte[] digest(FileTransferService service, String path) throws IOException {
+        MessageDigest digest = StreamingFileCopier.newDigest();
+        try (ReadableByteChannel in = service.openRead(path, 0)) {
+            digest(in, digest, buffers.get(), Long.MAX_VALUE);
+        }
+        return digest.digest();
+    }
+
+    private static long resumeOffset(FileEntry source, FileEntry partial) {
+        if (partial == null || partial.isDirectory() || partial.getSize() > source.getSize()) {
+            return 0;
+        }
+        // Remote file systems only keep whole seconds
+        return partial.getModifiedMillis() / 1000 >= source.getModifiedMillis() / 1000 ? partial.getSize() : 0;
+    }
+
+    private static long digest(ReadableByteChannel in, MessageDigest digest, ByteBuffer buffer, long limit) throws IOException {
+        long read = 0;
+        while (read < limit) {
+            buffer.clear();
+            if (limit - read < buffer.capacity()) {
+                buffer.limit((int) (limit - read));
+            }
+            int count = in.read(buffer);
+            if (count == -1) {
+                break;
+            }
+            buffer.flip();
+            digest.update(buffer);
+            read += count;
+        }
+        return read;
+    }
+}
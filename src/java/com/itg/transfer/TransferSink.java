@@ -0,0 +1,21 @@
+package com.itg.transfer;
+
+import com.itg.FileTransferService;
+import lombok.Data;
+
+/**
+ * One destination of a {@link TransferPipeline#fanOut fan-out}: the partial file a copy is written to.
+ */
+@Data
+public class TransferSink {
+
+    /**
+     * File system of the destination.
+     */
+    private final FileTransferService service;
+    /**
+     * Partial file the copy is written to, published by the caller once it is verified.
+     */
+    private final String partialPath;
+
+}
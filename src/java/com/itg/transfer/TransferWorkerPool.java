@@ -0,0 +1,259 @@
+package com.itg.transfer;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fixed pool of transfer workers fed by the directory scanners.
+ * <p>
+ * At most {@code workers + queueCapacity} work items are accepted at a time, a scanner submitting more blocks
+ * until a worker finishes. An item whose outcome is reported by a follow-up keeps its place until the follow-up
+ * completes, so follow-ups never pile up behind the workers. On top of that no more than {@code perDestinationLimit}
+ * items run against the same destination directory at once: a scanner submitting another one waits before the item
+ * is queued, so a busy directory never holds a worker. Items are grouped into batches so a scan cycle can wait for the files it queued.
+ * <p>
+ * In {@link ExecutionMode#VIRTUAL} every item gets its own virtual thread, so blocked disk and SFTP I/O does not
+ * hold a scarce worker. The worker count then only sizes the capacity. The directory walks are not run by the pool.
+ */
+public class TransferWorkerPool {
+
+    static Logger logger = Logger.getLogger("BankMessageMover");
+
+    private final ExecutorService workers;
+    private final ExecutionMode mode;
+    private final Semaphore capacity;
+    private final int maxPending;
+    private final int perDestinationLimit;
+    private final Map<String, DestinationLimit> destinationLimits = new ConcurrentHashMap<>();
+
+    /**
+     * @param workerCount         Number of worker threads
+     * @param queueCapacity       Number of work items waiting for a worker before the scanner blocks
+     * @param perDestinationLimit Number of work items running against the same destination at once
+     */
+    public TransferWorkerPool(int workerCount, int queueCapacity, int perDestinationLimit) {
+        this(workerCount, queueCapacity, perDestinationLimit, ExecutionMode.PLATFORM);
+    }
+
+    /**
+     * @param workerCount         Number of worker threads, in virtual mode only used to size the capacity
+     * @param queueCapacity       Number of work items waiting for a worker before the scanner blocks
+     * @param perDestinationLimit Number of work items running against the same destination at once
+     * @param mode                Threads the work items run on, virtual mode falls back to the fixed worker pool
+     *                            on a runtime without virtual threads
+     */
+    public TransferWorkerPool(int workerCount, int queueCapacity, int perDestinationLimit, ExecutionMode mode) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService virtualThreads = mode == ExecutionMode.VIRTUAL ? newVirtualThreadPerTaskExecutor() : null;
+        if (virtualThreads != null) {
+            this.mode = ExecutionMode.VIRTUAL;
+            this.workers = virtualThreads;
+        } else {
+            this.mode = ExecutionMode.PLATFORM;
+            this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+                Thread thread = new Thread(runnable, "transfer-worker-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.maxPending = workerCount + queueCapacity;
+        this.capacity = new Semaphore(maxPending);
+        this.perDestinationLimit = perDestinationLimit;
+    }
+
+    /**
+     * @return New empty batch
+     */
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    /**
+     * @return Number of work items queued, running or waiting for their follow-up
+     */
+    public int getPendingCount() {
+        return maxPending - capacity.availablePermits();
+    }
+
+    /**
+     * @return Threads the work items actually run on
+     */
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Stops accepting work and waits for the running items.
+     */
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acquireDestination(String destination) throws InterruptedException {
+        DestinationLimit limit = destinationLimits.compute(destination, (key, current) -> {
+            DestinationLimit used = current != null ? current : new DestinationLimit(perDestinationLimit);
+            used.users++;
+            return used;
+        });
+        try {
+            limit.permits.acquire();
+        } catch (InterruptedException e) {
+            destinationLimits.computeIfPresent(destination, (key, current) -> --current.users == 0 ? null : current);
+            throw e;
+        }
+    }
+
+    private void releaseDestination(String destination) {
+        destinationLimits.computeIfPresent(destination, (key, current) -> {
+            current.permits.release();
+            // Forgotten once unused, destination directories come and go, e.g. one archive folder per day
+            return --current.users == 0 ? null : current;
+        });
+    }
+
+    /**
+     * Creates {@code Executors.newVirtualThreadPerTaskExecutor()} through reflection, the build targets Java 17.
+     *
+     * @return Executor or null if the runtime has no virtual threads
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.log(Level.INFO, "Virtual threads are not available on this runtime, using the fixed worker pool.");
+            return null;
+        }
+    }
+
+    /**
+     * Items running or waiting for a destination directory.
+     */
+    private static class DestinationLimit {
+
+        private final Semaphore permits;
+        private int users;
+
+        private DestinationLimit(int limit) {
+            this.permits = new Semaphore(limit);
+        }
+    }
+
+    /**
+     * Work items submitted during one scan cycle.
+     */
+    public class Batch {
+
+        private final Phaser pending = new Phaser(1);
+        private final LongAdder succeeded = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+
+        /**
+         * Queues a work item, blocking while the pool is at capacity.
+         *
+         * @param destination Destination directory the item writes to
+         * @param work        Work item, returns false or throws if the transfer failed. Returning null means the
+         *                    outcome is reported by a follow-up passed to {@link #track(CompletableFuture)},
+         *                    which then holds the place of the item in the pool
+         */
+        public void submit(String destination, Callable<Boolean> work) throws InterruptedException {
+            acquireDestination(destination);
+            try {
+                capacity.acquire();
+            } catch (InterruptedException e) {
+                releaseDestination(destination);
+                throw e;
+            }
+            pending.register();
+            try {
+                workers.execute(() -> run(destination, work));
+            } catch (RejectedExecutionException e) {
+                pending.arriveAndDeregister();
+                capacity.release();
+                releaseDestination(destination);
+                throw e;
+            }
+        }
+
+        /**
+         * Counts a follow-up of a work item, e.g. a verification running while the worker moves on to the next file.
+         * Must be the last call of the work item, which then returns null. The place of the item in the pool is only
+         * freed when the follow-up completes.
+         *
+         * @param followUp Completes with true if the transfer succeeded
+         */
+        public void track(CompletableFuture<Boolean> followUp) {
+            pending.register();
+            followUp.whenComplete((result, error) -> {
+                capacity.release();
+                if (error == null && Boolean.TRUE.equals(result)) {
+                    succeeded.increment();
+                } else {
+                    failed.increment();
+                    if (error != null) {
+                        logger.log(Level.SEVERE, "Error during file transfer.", error);
+                    }
+                }
+                pending.arriveAndDeregister();
+            });
+        }
+
+        /**
+         * Waits until every submitted work item finished. The batch must not be used afterwards.
+         *
+         * @return Number of succeeded and failed items
+         */
+        public BatchResult await() {
+            pending.arriveAndAwaitAdvance();
+            return new BatchResult(succeeded.sum(), failed.sum());
+        }
+
+        private void run(String destination, Callable<Boolean> work) {
+            boolean handedOver = false;
+            try {
+                Boolean result = work.call();
+                if (Boolean.TRUE.equals(result)) {
+                    succeeded.increment();
+                } else if (result != null) {
+                    failed.increment();
+                } else {
+                    // The follow-up frees the place
+                    handedOver = true;
+                }
+            } catch (InterruptedException e) {
+                failed.increment();
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                failed.increment();
+                logger.log(Level.SEVERE, "Error during file transfer.", e);
+            } finally {
+                releaseDestination(destination);
+                if (!handedOver) {
+                    capacity.release();
+                }
+                pending.arriveAndDeregister();
+            }
+        }
+    }
+}